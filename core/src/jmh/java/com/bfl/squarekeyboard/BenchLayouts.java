@@ -0,0 +1,78 @@
+package com.bfl.squarekeyboard;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Generated layout files for the benchmarks, shaped like layout.txt:
+ * a 5x11 grid, layouts mixing letters, quoted strings and special keys,
+ * and states with swipe layers and meta keys.
+ */
+class BenchLayouts {
+    static final int ROWS = 5, COLS = 11;
+
+    static final SquareKeyboard.ActionListener NULL_LISTENER =
+        new SquareKeyboard.ActionListener() {
+            public void onKey(char ch) {}
+            public void onText(CharSequence text) {}
+            public void onSpecialKey(int keyCode) {}
+            public void onMacro(Macro macro) {}
+            public void changeMode() {}
+        };
+
+    private static final String[] SPECIAL = {
+        "BKSP", "RET", "LEFT", "RIGHT", "UP", "DOWN", "TAB", "ESC"
+    };
+
+    // text of a layout file with nLayouts layouts and as many states
+    static String generate(int nLayouts) {
+        Random rnd = new Random(4711);
+        StringBuilder b = new StringBuilder();
+        b.append("size ").append(ROWS).append(' ').append(COLS).append("\n\n");
+        for(int n = 0; n < nLayouts; n++) {
+            b.append("layout l").append(n).append(" {\n");
+            for(int r = 0; r < ROWS; r++) {
+                b.append("   ");
+                for(int c = 0; c < COLS; c++) {
+                    b.append(' ');
+                    if(r == ROWS-1 && c < 3) {
+                        b.append('S').append(c+1);
+                        continue;
+                    }
+                    int kind = rnd.nextInt(10);
+                    if(kind < 6) {
+                        b.append((char)('a' + rnd.nextInt(26)));
+                    } else if(kind < 8) {
+                        b.append("\"").append((char)('a' + rnd.nextInt(26)))
+                            .append((char)('a' + rnd.nextInt(26))).append("(\"");
+                    } else if(kind < 9) {
+                        b.append(SPECIAL[rnd.nextInt(SPECIAL.length)]);
+                    } else {
+                        b.append('*');
+                    }
+                }
+                b.append('\n');
+            }
+            b.append("}\n\n");
+        }
+        for(int n = 0; n < nLayouts; n++) {
+            String name = n == 0 ? "main" : "s" + n;
+            int other = (n+1) % nLayouts;
+            b.append("state ").append(name).append(" {\n");
+            b.append("    layout l").append(n).append(" shift:l").append(other).append('\n');
+            b.append("    alt_label l").append(other).append('\n');
+            b.append("    S1 \"ABC\" deadlatch main\n");
+            b.append("    S2 \"sym\" state main\n");
+            b.append("    S3 \"ctr\" dead ctrl:l").append(other).append('\n');
+            b.append("    swipe_ud shift:l").append(n).append('\n');
+            b.append("    swipe_lr l").append(other).append('\n');
+            b.append("}\n\n");
+        }
+        return b.toString();
+    }
+
+    static SquareKeyboard keyboard(int nLayouts) {
+        SquareKeyboard kb = new SquareKeyboard(NULL_LISTENER);
+        kb.load(new StringReader(generate(nLayouts)));
+        return kb;
+    }
+}
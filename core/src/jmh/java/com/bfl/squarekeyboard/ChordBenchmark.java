@@ -0,0 +1,54 @@
+package com.bfl.squarekeyboard;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Chord tracking and preview label lookup with an increasing number of
+ * pointers down, against a chord map of all chords of up to three keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChordBenchmark {
+    static final int KEYS = Chord.KEYS;
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10"})
+    int pointers;
+
+    SquareKeyboard mKeyboard;
+    Chord mChord;
+    int mStep;
+
+    @Setup
+    public void setup() {
+        mKeyboard = BenchLayouts.keyboard(1);
+        ChordMap.Builder b = new ChordMap.Builder();
+        for(int x = 0; x < KEYS; x++) {
+            for(int y = x; y < KEYS; y++) {
+                for(int z = y; z < KEYS; z++) {
+                    int mask = (1 << x) | (1 << y) | (1 << z);
+                    b.put(mask, mKeyboard.new TypeKey(Integer.toString(mask, 36)));
+                }
+            }
+        }
+        mKeyboard.mLayoutSet.chords = b.build(null);
+        mChord = new Chord();
+        for(int p = 0; p < pointers; p++) {
+            mChord.down(p, (2*p) % KEYS);
+            mChord.move(p, (2*p+1) % KEYS);
+        }
+    }
+
+    @Benchmark
+    public String lookup() {
+        return mKeyboard.getChordLabel(mChord.getChord());
+    }
+
+    // what a touch move does: update one pointer, look up the preview
+    @Benchmark
+    public String moveAndLookup() {
+        int p = mStep++ % pointers;
+        mChord.move(p, (mStep*7) % KEYS);
+        return mKeyboard.getChordLabel(mChord.getChord());
+    }
+}
@@ -0,0 +1,38 @@
+package com.bfl.squarekeyboard;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** MapFileReader on layout files of increasing size. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+    @Param({"1", "8", "64"})
+    int layouts;
+
+    String mText;
+    SquareKeyboard mKeyboard;
+    SquareKeyboard.LayoutSet mPrevious;
+
+    @Setup
+    public void setup() {
+        mText = BenchLayouts.generate(layouts);
+        mKeyboard = new SquareKeyboard(BenchLayouts.NULL_LISTENER);
+        mPrevious = mKeyboard.parse(mText, null);
+    }
+
+    @Benchmark
+    public SquareKeyboard.LayoutSet parse() {
+        SquareKeyboard.LayoutSet set = mKeyboard.parse(mText, null);
+        mKeyboard.compile(set);
+        return set;
+    }
+
+    // hot reload of an unchanged file, every block is reused
+    @Benchmark
+    public SquareKeyboard.LayoutSet reparseUnchanged() {
+        SquareKeyboard.LayoutSet set = mKeyboard.parse(mText, mPrevious);
+        mKeyboard.compile(set);
+        return set;
+    }
+}
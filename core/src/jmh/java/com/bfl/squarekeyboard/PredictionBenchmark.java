@@ -0,0 +1,79 @@
+package com.bfl.squarekeyboard;
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Per keystroke cost of WordPredictor against a mapped dictionary of
+ * generated words with Zipf-like frequencies, typing whole words. With
+ * correct, every word has one letter wrong and SpatialCorrector runs
+ * with no time budget.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PredictionBenchmark {
+    @Param({"20000", "200000"})
+    int words;
+    @Param({"false", "true"})
+    boolean correct;
+
+    WordPredictor mPredictor;
+    String[] mTyped;
+
+    @Setup
+    public void setup() throws IOException {
+        Random rnd = new Random(4711);
+        // letters weighted roughly like English text
+        String letters = "eeeeeeeeeeeettttttttaaaaaaaooooooiiiiiinnnnnnsssssshhhhhrrrrrdddlllcuummwfgypbvk";
+        TrieDictionary.Builder b = new TrieDictionary.Builder();
+        String[] all = new String[words];
+        for(int i = 0; i < words; i++) {
+            int len = 2 + rnd.nextInt(4) + rnd.nextInt(6);
+            StringBuilder sb = new StringBuilder(len);
+            for(int k = 0; k < len; k++)
+                sb.append(letters.charAt(rnd.nextInt(letters.length())));
+            all[i] = sb.toString();
+            b.add(all[i], 1 + (int) (254 * (1 - Math.log(i+1) / Math.log(words))));
+        }
+        File file = File.createTempFile("bench", ".dict");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            b.write(out);
+        } finally {
+            out.close();
+        }
+        TrieDictionary dict = TrieDictionary.open(file);
+        mPredictor = new WordPredictor(dict, 3);
+        if(correct) {
+            SpatialCorrector c = new SpatialCorrector(dict, BenchLayouts.keyboard(4));
+            c.setBudget(Long.MAX_VALUE / 2);
+            mPredictor.setCorrector(c);
+        }
+        mTyped = new String[64];
+        for(int i = 0; i < mTyped.length; i++) {
+            String w = all[rnd.nextInt(words)];
+            if(correct) {
+                char[] typo = w.toCharArray();
+                typo[rnd.nextInt(typo.length)] = letters.charAt(rnd.nextInt(letters.length()));
+                w = new String(typo);
+            }
+            mTyped[i] = w;
+        }
+    }
+
+    // one word and its space per call; divide by about 8 for a keystroke
+    @Benchmark
+    public int typeWord() {
+        int n = 0;
+        String w = mTyped[(int) (System.nanoTime() & 63)];
+        for(int i = 0; i < w.length(); i++) {
+            mPredictor.onChar(w.charAt(i));
+            n += mPredictor.getCandidateCount();
+        }
+        mPredictor.onChar(' ');
+        return n;
+    }
+}
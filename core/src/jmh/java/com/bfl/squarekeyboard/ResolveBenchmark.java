@@ -0,0 +1,43 @@
+package com.bfl.squarekeyboard;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Key lookups of a full redraw, as SquareKeyboardView.onDraw does them. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResolveBenchmark {
+    // resolve through the dead layout overlay instead of the state tables
+    @Param({"false", "true"})
+    boolean dead;
+
+    SquareKeyboard mKeyboard;
+
+    @Setup
+    public void setup() {
+        mKeyboard = BenchLayouts.keyboard(4);
+        if(dead) {
+            mKeyboard.mState.sKey[3].onPress();
+        }
+    }
+
+    @Benchmark
+    public void drawPass(Blackhole bh) {
+        SquareKeyboard kb = mKeyboard;
+        int rows = kb.getRows(), cols = kb.getCols();
+        for(int i = 0; i < rows; i++) {
+            for(int j = 0; j < cols; j++) {
+                bh.consume(kb.getKeyLabel(i,j,0));
+                bh.consume(kb.getKeyLabel(i,j,SquareKeyboard.SWIPE_DISPLAY));
+                bh.consume(kb.getKeyState(i,j,0));
+            }
+        }
+    }
+
+    // rebuilding the overlay, done on every dead key press
+    @Benchmark
+    public void updateResolved() {
+        mKeyboard.updateResolved();
+    }
+}
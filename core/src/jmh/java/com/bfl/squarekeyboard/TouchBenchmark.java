@@ -0,0 +1,63 @@
+package com.bfl.squarekeyboard;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The touch path without a device: a generated recording of taps, swipes
+ * and overlapping presses replayed through KeyTracker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TouchBenchmark {
+    static final int WIDTH = 1080, ROW_HEIGHT = 35;
+    // move samples per gesture, as a high rate touch panel batches them
+    @Param({"4", "32"})
+    int samples;
+
+    KeyTracker mTracker;
+    TouchRecording mRecording;
+
+    @Setup
+    public void setup() {
+        SquareKeyboard kb = BenchLayouts.keyboard(4);
+        mTracker = new KeyTracker(ROW_HEIGHT, 1);
+        mTracker.setKeyboard(kb);
+        mTracker.setWidth(WIDTH);
+        mRecording = generate(100, samples);
+    }
+
+    // gestures on the upper four rows, which hold no state switching keys
+    static TouchRecording generate(int gestures, int samples) {
+        Random rnd = new Random(4711);
+        TouchRecording rec = new TouchRecording(WIDTH, ROW_HEIGHT);
+        float colWidth = (float) WIDTH / BenchLayouts.COLS;
+        long time = 0;
+        for(int g = 0; g < gestures; g++) {
+            // every fourth gesture overlaps with a press of pointer 1
+            boolean overlap = g % 4 == 3;
+            float x = (rnd.nextInt(BenchLayouts.COLS) + 0.5f) * colWidth;
+            float y = (rnd.nextInt(BenchLayouts.ROWS-1) + 0.5f) * ROW_HEIGHT;
+            float dx = rnd.nextInt(3) == 0 ? rnd.nextInt(121) - 60 : 0;
+            float dy = rnd.nextInt(3) == 0 ? rnd.nextInt(31) - 15 : 0;
+            rec.add(time, TouchRecording.DOWN, 0, x, y);
+            if(overlap)
+                rec.add(time, TouchRecording.DOWN, 1, WIDTH - x, y);
+            for(int s = 1; s <= samples; s++) {
+                time += 2;
+                rec.add(time, TouchRecording.MOVE, 0, x + dx*s/samples, y + dy*s/samples);
+            }
+            if(overlap)
+                rec.add(time, TouchRecording.UP, 1, WIDTH - x, y);
+            rec.add(time, TouchRecording.UP, 0, x + dx, y + dy);
+            time += 40;
+        }
+        return rec;
+    }
+
+    @Benchmark
+    public void replay() throws InterruptedException {
+        TouchReplay.replay(mRecording, mTracker, false, null);
+    }
+}
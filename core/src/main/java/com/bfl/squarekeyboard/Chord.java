@@ -0,0 +1,127 @@
+package com.bfl.squarekeyboard;
+
+/**
+ * The pointers currently down on the chord keyboard, with the key each
+ * started on and the key it is over now. Keys are ids below KEYS and
+ * sets of them are int masks, bit id for key id, so nothing here
+ * allocates. The chord is every key touched since the first pointer went
+ * down; it is done when the last one goes up.
+ */
+public class Chord {
+    public static final int KEYS = 20;
+    // pointer ids at or above this are ignored
+    static final int MAX_POINTERS = 32;
+
+    private static final String[] sKeyLabels = new String[KEYS];
+    static {
+        for(int id = 0; id < KEYS; id++)
+            sKeyLabels[id] = String.valueOf(keyName(id));
+    }
+
+    // by pointer id: the key it went down on and the key it is over,
+    // -1 for none
+    private final int[] mStartKey = new int[MAX_POINTERS];
+    private final int[] mCurKey = new int[MAX_POINTERS];
+    // bit ptrId for every pointer down
+    private int mPointers;
+    // keys pointers went down on, keys they moved on to, and the chord
+    private int mActive, mHovered, mChord;
+
+    private static int bit(int key) {
+        return key >= 0 && key < KEYS ? 1 << key : 0;
+    }
+
+    public void down(int ptrId, int key) {
+        if(ptrId < 0 || ptrId >= MAX_POINTERS)
+            return;
+        if(mPointers == 0)
+            mChord = 0;
+        mPointers |= 1 << ptrId;
+        mStartKey[ptrId] = mCurKey[ptrId] = key;
+        update();
+    }
+
+    // returns false if the pointer is not down or the chord did not change
+    public boolean move(int ptrId, int key) {
+        if(!isDown(ptrId) || mCurKey[ptrId] == key)
+            return false;
+        mCurKey[ptrId] = key;
+        int chord = mChord, hovered = mHovered;
+        update();
+        return mChord != chord || mHovered != hovered;
+    }
+
+    /** True while some pointer is down. */
+    public boolean inProgress() {
+        return mPointers != 0;
+    }
+
+    public boolean isDown(int ptrId) {
+        return ptrId >= 0 && ptrId < MAX_POINTERS && (mPointers & (1 << ptrId)) != 0;
+    }
+
+    /**
+     * The pointer went up. Returns the finished chord if it was the last
+     * one down, 0 otherwise.
+     */
+    public int up(int ptrId) {
+        if(!isDown(ptrId))
+            return 0;
+        mPointers &= ~(1 << ptrId);
+        update();
+        return mPointers == 0 ? mChord : 0;
+    }
+
+    public void cancel() {
+        mPointers = mActive = mHovered = mChord = 0;
+    }
+
+    private void update() {
+        int active = 0, hovered = 0;
+        for(int p = 0; p < MAX_POINTERS; p++) {
+            if((mPointers & (1 << p)) == 0)
+                continue;
+            active |= bit(mStartKey[p]);
+            hovered |= bit(mCurKey[p]);
+        }
+        mActive = active;
+        mHovered = hovered & ~active;
+        mChord |= active | hovered;
+    }
+
+    /** Keys pointers now down went down on. */
+    public int getActive() {
+        return mActive;
+    }
+
+    /** Keys pointers now down moved on to, other than the active ones. */
+    public int getHovered() {
+        return mHovered;
+    }
+
+    /** Every key touched since the chord began. */
+    public int getChord() {
+        return mChord;
+    }
+
+    public static char keyName(int keyId) {
+        return (char)('a' + keyId);
+    }
+
+    /** keyName() as a string, for drawing. */
+    public static String keyLabel(int keyId) {
+        return sKeyLabels[keyId];
+    }
+
+    /** Mask of a chord written as key names, e.g. "abe"; 0 if invalid. */
+    static int parse(String keys) {
+        int mask = 0;
+        for(int i = 0; i < keys.length(); i++) {
+            int id = keys.charAt(i) - 'a';
+            if(id < 0 || id >= KEYS)
+                return 0;
+            mask |= 1 << id;
+        }
+        return mask;
+    }
+}
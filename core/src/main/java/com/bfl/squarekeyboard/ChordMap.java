@@ -0,0 +1,122 @@
+package com.bfl.squarekeyboard;
+import java.util.Arrays;
+
+/**
+ * What the chords of the chord keyboard type, declared with the chord
+ * directive. The keys they press are kept in an open addressing table
+ * keyed by chord mask, with each key's label and its width in the
+ * preview next to it, so a lookup is a multiply and a probe or two.
+ * Built when the layout is parsed and not changed after.
+ */
+public final class ChordMap {
+    static final ChordMap EMPTY = new Builder().build(null);
+
+    /** Width of a label as the preview draws it. */
+    public interface TextMeasure {
+        float measure(String label);
+    }
+
+    // slot of a chord, 0 if free, and what it presses
+    private final int[] mMasks;
+    private final SquareKeyboard.Key[] mKeys;
+    private final String[] mLabels;
+    private final float[] mWidths;
+    private final int mShift;
+    private final int mSize;
+
+    private ChordMap(int capacityBits, int size) {
+        mMasks = new int[1 << capacityBits];
+        mKeys = new SquareKeyboard.Key[1 << capacityBits];
+        mLabels = new String[1 << capacityBits];
+        mWidths = new float[1 << capacityBits];
+        mShift = 32 - capacityBits;
+        mSize = size;
+    }
+
+    private int slot(int mask) {
+        int n = mMasks.length - 1;
+        int s = (mask * 0x9e3779b9) >>> mShift;
+        while(mMasks[s] != 0 && mMasks[s] != mask)
+            s = (s + 1) & n;
+        return s;
+    }
+
+    /** Key pressed by the chord, null if none. */
+    SquareKeyboard.Key getKey(int mask) {
+        if(mask == 0)
+            return null;
+        return mKeys[slot(mask)];
+    }
+
+    /** Label of what the chord types, null if nothing. */
+    public String getLabel(int mask) {
+        if(mask == 0)
+            return null;
+        return mLabels[slot(mask)];
+    }
+
+    /** Preview width of the label, -1 if nothing or not measured. */
+    public float getWidth(int mask) {
+        if(mask == 0)
+            return -1;
+        int s = slot(mask);
+        return mMasks[s] == 0 ? -1 : mWidths[s];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    // for writing all chords out, see CompiledLayout
+    int capacity() {
+        return mMasks.length;
+    }
+
+    int maskAt(int slot) {
+        return mMasks[slot];
+    }
+
+    SquareKeyboard.Key keyAt(int slot) {
+        return mKeys[slot];
+    }
+
+    static final class Builder {
+        private int[] mMasks = new int[16];
+        private SquareKeyboard.Key[] mKeys = new SquareKeyboard.Key[16];
+        private int mSize;
+
+        /** A chord declared again replaces what it was before. */
+        void put(int mask, SquareKeyboard.Key key) {
+            for(int i = 0; i < mSize; i++) {
+                if(mMasks[i] == mask) {
+                    mKeys[i] = key;
+                    return;
+                }
+            }
+            if(mSize == mMasks.length) {
+                mMasks = Arrays.copyOf(mMasks, 2*mSize);
+                mKeys = Arrays.copyOf(mKeys, 2*mSize);
+            }
+            mMasks[mSize] = mask;
+            mKeys[mSize] = key;
+            mSize++;
+        }
+
+        /** measure may be null, leaving the widths unknown. */
+        ChordMap build(TextMeasure measure) {
+            // at most half full
+            int bits = 1;
+            while((1 << bits) < 2*mSize)
+                bits++;
+            ChordMap m = new ChordMap(bits, mSize);
+            for(int i = 0; i < mSize; i++) {
+                int s = m.slot(mMasks[i]);
+                m.mMasks[s] = mMasks[i];
+                m.mKeys[s] = mKeys[i];
+                m.mLabels[s] = mKeys[i].getLabel();
+                m.mWidths[s] = measure == null ? -1 : measure.measure(m.mLabels[s]);
+            }
+            return m;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.bfl.squarekeyboard;
+
+/**
+ * Turns touches on the chord keyboard into chords: the key under each
+ * pointer, and pressing what the chord is mapped to when the last pointer
+ * goes up. The keys are two blocks of ROWS by COLS, one at each edge.
+ * ChordKeyboardView draws what this tracks; kept free of Android like
+ * KeyTracker so recorded touches can be replayed off-device.
+ */
+public class ChordTracker implements TouchHandler {
+
+    /** What a view needs to know to redraw. */
+    public interface Callback {
+        // keys in the mask became or stopped being active or hovered
+        void onKeysChanged(int keys);
+        // the chord in progress changed, or it ended
+        void onChordChanged();
+    }
+
+    public static final int ROWS = 2, COLS = 5, BOXES = 2;
+
+    // pointers down and the keys they touched
+    final Chord mChord = new Chord();
+
+    SquareKeyboard mKeyboard;
+    Callback mCallback;
+    int mRowHeight, mColWidth;
+    int mLineThickness;
+    int mWidth;
+    int mMidPaneX, mRightPaneX;
+
+    public ChordTracker(int rowHeight, int colWidth, int lineThickness) {
+        mRowHeight = rowHeight;
+        mColWidth = colWidth;
+        mLineThickness = lineThickness;
+    }
+
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    public void setKeyboard(SquareKeyboard keyboard) {
+        mKeyboard = keyboard;
+    }
+
+    public void setWidth(int width) {
+        mWidth = width;
+        mMidPaneX = COLS*mColWidth+mLineThickness;
+        mRightPaneX = width - mMidPaneX;
+    }
+
+    public int getMidPaneX() {
+        return mMidPaneX;
+    }
+
+    public int getRightPaneX() {
+        return mRightPaneX;
+    }
+
+    public Chord getChord() {
+        return mChord;
+    }
+
+    static int indexToId(int box, int i, int j) {
+        return ROWS*(COLS*box+j)+i; // C order: key[box][[col][row]
+    }
+
+    // key under x,y, -2 between the blocks, -1 off the keys
+    int posToId(float x,float y) {
+        if( x <= 1 || x >= mWidth -1 ) return -1;
+        if( y <= 1 || y >= ROWS*mRowHeight ) return -1;
+        int i = (int) y/ mRowHeight;
+        int box;
+        if( x < mMidPaneX) {
+            box = 0;
+        } else if(x >= mRightPaneX) {
+            box = 1;
+            x -= mRightPaneX;
+        } else {
+            // return midPaneId(x,y);
+            return -2;
+        }
+        int j = (int) (x / mColWidth);
+        return indexToId(box,i,j);
+    }
+
+    // the chord the preview shows, 0 for none
+    private int previewChord() {
+        return mChord.inProgress() ? mChord.getChord() : 0;
+    }
+
+    // tells the callback what changed since active, hovered and preview
+    private void changed(int active, int hovered, int preview) {
+        if(mCallback == null)
+            return;
+        int keys = (active ^ mChord.getActive()) | (hovered ^ mChord.getHovered());
+        if(keys != 0)
+            mCallback.onKeysChanged(keys);
+        if(preview != previewChord())
+            mCallback.onChordChanged();
+    }
+
+    public void onTouchDown(int ptrId, float x, float y) {
+        int active = mChord.getActive(), hovered = mChord.getHovered(), preview = previewChord();
+        mChord.down(ptrId, posToId(x,y));
+        changed(active, hovered, preview);
+    }
+
+    public void onTouchMove(int ptrId,float x, float y) {
+        int active = mChord.getActive(), hovered = mChord.getHovered(), preview = previewChord();
+        if(!mChord.move(ptrId, posToId(x,y)))
+            return;
+        changed(active, hovered, preview);
+    }
+
+    public void onTouchUp(int ptrId,float x, float y) {
+        if(!mChord.isDown(ptrId))
+            return;
+        int active = mChord.getActive(), hovered = mChord.getHovered(), preview = previewChord();
+        int chord = mChord.up(ptrId);
+        // release first, pressing may switch the keyboard
+        changed(active, hovered, preview);
+        if(chord != 0 && mKeyboard != null)
+            mKeyboard.pressChord(chord);
+    }
+
+    public void onTouchCancel() {
+        int active = mChord.getActive(), hovered = mChord.getHovered(), preview = previewChord();
+        mChord.cancel();
+        changed(active, hovered, preview);
+    }
+}
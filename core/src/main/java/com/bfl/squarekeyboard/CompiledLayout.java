@@ -0,0 +1,443 @@
+package com.bfl.squarekeyboard;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of a parsed keyboard: sizes, layouts, states, meta
+ * keys, input type mappings, chords and the source of every block. The
+ * header records size, mtime and CRC32 of the layout.txt it was compiled
+ * from, so the snapshot can be validated without reparsing.
+ */
+class CompiledLayout {
+    static final int MAGIC = 0x53514b42; // "SQKB"
+    static final int VERSION = 8;
+
+    // header: magic, version, source size, source mtime, source crc
+    static final int HEADER_SIZE = 4+4+8+8+4;
+
+    static final byte KEY_NONE = 0;
+    static final byte KEY_TYPE = 1;
+    static final byte KEY_SPECIAL = 2;
+    static final byte KEY_PLACEHOLDER = 3;
+    static final byte KEY_STATE = 4;
+    static final byte KEY_DEAD = 5;
+    static final byte KEY_MACRO = 6;
+
+    static final byte BLOCK_LAYOUT = 0;
+    static final byte BLOCK_GEOMETRY = 1;
+    static final byte BLOCK_STATE = 2;
+
+    static final String UTF8 = "UTF-8";
+
+    final SquareKeyboard mKeyboard;
+    final SquareKeyboard.LayoutSet mSet;
+
+    CompiledLayout(SquareKeyboard keyboard, SquareKeyboard.LayoutSet set) {
+        mKeyboard = keyboard;
+        mSet = set;
+    }
+
+    static class Header {
+        long size, mtime;
+        int crc;
+    }
+
+    /**
+     * Returns the source stamp of a snapshot file, or null if the file is
+     * missing or was written by another version.
+     */
+    static Header readHeader(File file) {
+        if(!file.exists() || file.length() < HEADER_SIZE)
+            return null;
+        RandomAccessFile f = null;
+        try {
+            f = new RandomAccessFile(file, "r");
+            if(f.readInt() != MAGIC || f.readInt() != VERSION)
+                return null;
+            Header h = new Header();
+            h.size = f.readLong();
+            h.mtime = f.readLong();
+            h.crc = f.readInt();
+            return h;
+        } catch(IOException e) {
+            return null;
+        } finally {
+            close(f);
+        }
+    }
+
+    /** Rewrites the stamp of an existing snapshot, e.g. after a touch. */
+    static void updateHeader(File file, long size, long mtime, int crc) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "rw");
+        try {
+            f.seek(8);
+            f.writeLong(size);
+            f.writeLong(mtime);
+            f.writeInt(crc);
+        } finally {
+            close(f);
+        }
+    }
+
+    // writing
+
+    void write(File file, long size, long mtime, int crc) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            out.writeLong(mtime);
+            out.writeInt(crc);
+            writeBody(out);
+        } finally {
+            out.close();
+        }
+        if(!tmp.renameTo(file))
+            throw new IOException("could not replace " + file);
+    }
+
+    private void writeBody(DataOutputStream out) throws IOException {
+        SquareKeyboard.LayoutSet set = mSet;
+        out.writeInt(set.rows);
+        out.writeInt(set.cols);
+        out.writeInt(set.repeatDelay);
+        out.writeInt(set.repeatInterval);
+        out.writeInt(set.repeatMinInterval);
+        for(String name: set.inputStateNames) {
+            out.writeBoolean(name != null);
+            if(name != null)
+                writeString(out, name);
+        }
+
+        out.writeInt(set.layouts.size());
+        for(Map.Entry<String,SquareKeyboard.Key[][]> e: set.layouts.entrySet()) {
+            writeString(out, e.getKey());
+            SquareKeyboard.Key[][] l = e.getValue();
+            for(int r = 0; r < set.rows; r++) {
+                for(int c = 0; c < set.cols; c++) {
+                    writeKey(out, l[r][c]);
+                }
+            }
+        }
+
+        out.writeInt(set.geometries.size());
+        for(Map.Entry<String,float[][]> e: set.geometries.entrySet()) {
+            writeString(out, e.getKey());
+            float[][] g = e.getValue();
+            for(int r = 0; r < set.rows; r++) {
+                for(int c = 0; c < set.cols; c++) {
+                    out.writeFloat(g[r][c]);
+                }
+            }
+        }
+
+        out.writeInt(set.states.size());
+        for(Map.Entry<String,SquareKeyboard.State> e: set.states.entrySet()) {
+            writeString(out, e.getKey());
+            SquareKeyboard.State s = e.getValue();
+            out.writeBoolean(s.geometryName != null);
+            if(s.geometryName != null)
+                writeString(out, s.geometryName);
+            writeLayoutList(out, s.layout);
+            out.writeInt(s.swipeLayout.length);
+            for(List<SquareKeyboard.Layout> l: s.swipeLayout) {
+                writeLayoutList(out, l);
+            }
+            out.writeInt(s.sKey.length);
+            for(SquareKeyboard.MetaKey k: s.sKey) {
+                writeKey(out, k);
+            }
+        }
+
+        // written before compile() builds set.chords
+        ChordMap chords = set.chordBuilder.build(null);
+        out.writeInt(chords.size());
+        for(int slot = 0; slot < chords.capacity(); slot++) {
+            if(chords.maskAt(slot) == 0)
+                continue;
+            out.writeInt(chords.maskAt(slot));
+            writeKey(out, chords.keyAt(slot));
+        }
+
+        // source of each block, so the first reparse after loading this
+        // can still take over the unchanged ones
+        out.writeInt(set.blocks.size());
+        for(Map.Entry<String,SquareKeyboard.Block> e: set.blocks.entrySet()) {
+            SquareKeyboard.Block b = e.getValue();
+            writeString(out, e.getKey());
+            writeString(out, b.name);
+            out.writeByte(b.layout != null ? BLOCK_LAYOUT
+                    : b.geometry != null ? BLOCK_GEOMETRY : BLOCK_STATE);
+            out.writeInt(b.rows);
+            out.writeInt(b.cols);
+            writeString(out, b.keyDefs);
+        }
+    }
+
+    private void writeKey(DataOutputStream out, SquareKeyboard.Key key) throws IOException {
+        if(key == null) {
+            out.writeByte(KEY_NONE);
+        } else if(key instanceof SquareKeyboard.TypeKey) {
+            out.writeByte(KEY_TYPE);
+            writeString(out, key.label);
+            writeString(out, ((SquareKeyboard.TypeKey)key).text);
+        } else if(key instanceof SquareKeyboard.SpecialKey) {
+            SquareKeyboard.SpecialKey k = (SquareKeyboard.SpecialKey)key;
+            out.writeByte(KEY_SPECIAL);
+            writeString(out, k.name);
+            writeString(out, k.label);
+            out.writeInt(k.keyCode);
+            out.writeBoolean(k.repeat);
+        } else if(key instanceof SquareKeyboard.MetaKeyPlaceholder) {
+            out.writeByte(KEY_PLACEHOLDER);
+            out.writeInt(((SquareKeyboard.MetaKeyPlaceholder)key).id);
+        } else if(key instanceof SquareKeyboard.StateKey) {
+            SquareKeyboard.StateKey k = (SquareKeyboard.StateKey)key;
+            out.writeByte(KEY_STATE);
+            writeString(out, k.label);
+            writeString(out, k.newState);
+            out.writeBoolean(k.dead);
+        } else if(key instanceof SquareKeyboard.DeadKey) {
+            out.writeByte(KEY_DEAD);
+            writeString(out, key.label);
+            writeLayoutList(out, ((SquareKeyboard.DeadKey)key).deadLayout);
+        } else if(key instanceof SquareKeyboard.MacroKey) {
+            SquareKeyboard.MacroKey k = (SquareKeyboard.MacroKey)key;
+            out.writeByte(KEY_MACRO);
+            writeString(out, k.name);
+            writeString(out, k.label);
+            writeMacro(out, k.macro);
+        } else {
+            throw new IOException("cannot compile key " + key.getClass());
+        }
+    }
+
+    private void writeMacro(DataOutputStream out, Macro m) throws IOException {
+        out.writeInt(m.size());
+        for(int i = 0; i < m.size(); i++) {
+            out.writeByte(m.getOp(i));
+            if(m.getOp(i) == Macro.TEXT)
+                writeString(out, m.getText(i));
+            else
+                out.writeInt(m.getArg(i));
+        }
+    }
+
+    private void writeLayoutList(DataOutputStream out, List<SquareKeyboard.Layout> list) throws IOException {
+        if(list == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(list.size());
+        for(SquareKeyboard.Layout l: list) {
+            writeString(out, l.name);
+            out.writeInt(l.shiftstate);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    // reading
+
+    /**
+     * Memory maps a snapshot and fills the keyboard from it. The header
+     * must already have been validated with readHeader().
+     */
+    void read(File file) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            FileChannel ch = f.getChannel();
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            buf.position(HEADER_SIZE);
+            readBody(buf);
+        } finally {
+            close(f);
+        }
+    }
+
+    private void readBody(ByteBuffer buf) throws IOException {
+        SquareKeyboard.LayoutSet set = mSet;
+        set.rows = buf.getInt();
+        set.cols = buf.getInt();
+        set.repeatDelay = buf.getInt();
+        set.repeatInterval = buf.getInt();
+        set.repeatMinInterval = buf.getInt();
+        for(int k = 0; k < set.inputStateNames.length; k++) {
+            if(buf.get() != 0)
+                set.inputStateNames[k] = readString(buf);
+        }
+
+        int nLayouts = buf.getInt();
+        for(int n = 0; n < nLayouts; n++) {
+            SquareKeyboard.Key[][] l = set.createLayout(readString(buf));
+            for(int r = 0; r < set.rows; r++) {
+                for(int c = 0; c < set.cols; c++) {
+                    l[r][c] = readKey(buf);
+                }
+            }
+        }
+
+        int nGeometries = buf.getInt();
+        for(int n = 0; n < nGeometries; n++) {
+            float[][] g = set.createGeometry(readString(buf));
+            for(int r = 0; r < set.rows; r++) {
+                for(int c = 0; c < set.cols; c++) {
+                    g[r][c] = buf.getFloat();
+                }
+            }
+        }
+
+        int nStates = buf.getInt();
+        for(int n = 0; n < nStates; n++) {
+            SquareKeyboard.State s = set.createState(readString(buf));
+            if(buf.get() != 0) {
+                s.geometryName = readString(buf);
+                s.geometry = set.geometries.get(s.geometryName);
+            }
+            s.layout = readLayoutList(buf);
+            int nSwipe = buf.getInt();
+            for(int i = 0; i < nSwipe; i++) {
+                s.swipeLayout[i] = readLayoutList(buf);
+            }
+            int nMeta = buf.getInt();
+            for(int i = 0; i < nMeta; i++) {
+                s.sKey[i] = (SquareKeyboard.MetaKey) readKey(buf);
+            }
+        }
+
+        int nChords = buf.getInt();
+        for(int n = 0; n < nChords; n++) {
+            int mask = buf.getInt();
+            set.chordBuilder.put(mask, readKey(buf));
+        }
+
+        int nBlocks = buf.getInt();
+        for(int n = 0; n < nBlocks; n++) {
+            String src = readString(buf);
+            SquareKeyboard.Block b = new SquareKeyboard.Block();
+            b.name = readString(buf);
+            byte type = buf.get();
+            if(type == BLOCK_LAYOUT)
+                b.layout = set.layouts.get(b.name);
+            else if(type == BLOCK_GEOMETRY)
+                b.geometry = set.geometries.get(b.name);
+            else
+                b.state = set.states.get(b.name);
+            b.rows = buf.getInt();
+            b.cols = buf.getInt();
+            b.keyDefs = readString(buf);
+            set.blocks.put(src, b);
+        }
+    }
+
+    private SquareKeyboard.Key readKey(ByteBuffer buf) throws IOException {
+        SquareKeyboard kb = mKeyboard;
+        byte tag = buf.get();
+        switch(tag) {
+            case KEY_NONE:
+                return null;
+            case KEY_TYPE: {
+                String label = readString(buf);
+                return kb.new TypeKey(label, readString(buf));
+            }
+            case KEY_SPECIAL: {
+                String name = readString(buf);
+                String label = readString(buf);
+                int code = buf.getInt();
+                boolean repeat = buf.get() != 0;
+                // share instances like the parser does
+                SquareKeyboard.Key k = mSet.specialKeys.get(name);
+                if(k instanceof SquareKeyboard.SpecialKey && k.label.equals(label)
+                        && ((SquareKeyboard.SpecialKey)k).keyCode == code
+                        && ((SquareKeyboard.SpecialKey)k).repeat == repeat)
+                    return k;
+                SquareKeyboard.SpecialKey key = mSet.defineKey(name, label, code);
+                key.repeat = repeat;
+                return key;
+            }
+            case KEY_PLACEHOLDER:
+                return mSet.getSpecialKey("S" + buf.getInt());
+            case KEY_STATE: {
+                String label = readString(buf);
+                String state = readString(buf);
+                return kb.new StateKey(label, state, buf.get() != 0);
+            }
+            case KEY_DEAD: {
+                String label = readString(buf);
+                return kb.new DeadKey(label, readLayoutList(buf));
+            }
+            case KEY_MACRO: {
+                String name = readString(buf);
+                String label = readString(buf);
+                Macro macro = readMacro(buf);
+                // one instance for all layouts, as parsed
+                SquareKeyboard.Key k = mSet.specialKeys.get(name);
+                if(k instanceof SquareKeyboard.MacroKey && k.label.equals(label))
+                    return k;
+                return mSet.defineMacro(name, label, macro);
+            }
+            default:
+                throw new IOException("bad key tag " + tag);
+        }
+    }
+
+    private static Macro readMacro(ByteBuffer buf) throws IOException {
+        Macro.Builder b = new Macro.Builder();
+        int n = buf.getInt();
+        for(int i = 0; i < n; i++) {
+            byte op = buf.get();
+            if(op == Macro.TEXT)
+                b.text(readString(buf));
+            else if(op == Macro.KEY)
+                b.key(buf.getInt());
+            else if(op == Macro.MOVE)
+                b.move(buf.getInt());
+            else
+                throw new IOException("bad macro step " + op);
+        }
+        return b.build();
+    }
+
+    private List<SquareKeyboard.Layout> readLayoutList(ByteBuffer buf) throws IOException {
+        int n = buf.getInt();
+        if(n < 0)
+            return null;
+        List<SquareKeyboard.Layout> l = new java.util.ArrayList<SquareKeyboard.Layout>(n);
+        for(int i = 0; i < n; i++) {
+            String name = readString(buf);
+            l.add(mSet.getLayout(name, buf.getInt()));
+        }
+        return l;
+    }
+
+    private static String readString(ByteBuffer buf) throws IOException {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, UTF8);
+    }
+
+    private static void close(java.io.Closeable c) {
+        if(c == null)
+            return;
+        try {
+            c.close();
+        } catch(IOException e) {
+        }
+    }
+}
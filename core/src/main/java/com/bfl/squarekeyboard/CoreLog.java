@@ -0,0 +1,43 @@
+package com.bfl.squarekeyboard;
+
+/**
+ * Logging for the platform independent classes. Goes to stderr unless
+ * the app installs a sink forwarding to android.util.Log.
+ */
+public final class CoreLog {
+    // same values as android.util.Log priorities
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+
+    public interface Sink {
+        void log(int priority, String tag, String msg, Throwable tr);
+    }
+
+    private static volatile Sink sSink = new Sink() {
+        public void log(int priority, String tag, String msg, Throwable tr) {
+            System.err.println(tag + ": " + msg);
+            if(tr != null)
+                tr.printStackTrace();
+        }
+    };
+
+    private CoreLog() {
+    }
+
+    public static void setSink(Sink sink) {
+        sSink = sink;
+    }
+
+    static void d(String tag, String msg) {
+        sSink.log(DEBUG, tag, msg, null);
+    }
+
+    static void i(String tag, String msg) {
+        sSink.log(INFO, tag, msg, null);
+    }
+
+    static void w(String tag, String msg, Throwable tr) {
+        sSink.log(WARN, tag, msg, tr);
+    }
+}
@@ -0,0 +1,89 @@
+package com.bfl.squarekeyboard;
+
+/**
+ * The kinds of editor the layout file can pick an initial state for, see
+ * the input directive. Input type values are those of
+ * android.text.InputType, as found in EditorInfo.inputType.
+ */
+public final class InputTypes {
+    public static final int TYPE_MASK_CLASS = 0x0000000f;
+    public static final int TYPE_MASK_VARIATION = 0x00000ff0;
+    public static final int TYPE_CLASS_TEXT = 1;
+    public static final int TYPE_CLASS_NUMBER = 2;
+    public static final int TYPE_CLASS_PHONE = 3;
+    public static final int TYPE_CLASS_DATETIME = 4;
+    public static final int TYPE_TEXT_VARIATION_URI = 0x10;
+    public static final int TYPE_TEXT_VARIATION_EMAIL_ADDRESS = 0x20;
+    public static final int TYPE_TEXT_VARIATION_PASSWORD = 0x80;
+    public static final int TYPE_TEXT_VARIATION_VISIBLE_PASSWORD = 0x90;
+    public static final int TYPE_TEXT_VARIATION_WEB_EMAIL_ADDRESS = 0xd0;
+    public static final int TYPE_TEXT_VARIATION_WEB_PASSWORD = 0xe0;
+
+    // kinds, indexes into LayoutSet.inputStates
+    static final int TEXT = 0;
+    static final int NUMBER = 1;
+    static final int PHONE = 2;
+    static final int DATETIME = 3;
+    static final int PASSWORD = 4;
+    static final int EMAIL = 5;
+    static final int URI = 6;
+    static final int KINDS = 7;
+
+    private static final String[] sNames = {
+        "text", "number", "phone", "datetime", "password", "email", "uri"
+    };
+
+    private InputTypes() {
+    }
+
+    /** Kind for a name in the layout file, -1 if there is none. */
+    static int fromName(String name) {
+        for(int k = 0; k < KINDS; k++) {
+            if(sNames[k].equals(name))
+                return k;
+        }
+        return -1;
+    }
+
+    static String getName(int kind) {
+        return sNames[kind];
+    }
+
+    /** Kind of the input class of inputType, -1 if none. */
+    static int classKind(int inputType) {
+        switch(inputType & TYPE_MASK_CLASS) {
+            case TYPE_CLASS_TEXT:
+                return TEXT;
+            case TYPE_CLASS_NUMBER:
+                return NUMBER;
+            case TYPE_CLASS_PHONE:
+                return PHONE;
+            case TYPE_CLASS_DATETIME:
+                return DATETIME;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Kind of the text variation of inputType, -1 if none; takes
+     * precedence over the class kind when mapped.
+     */
+    static int variationKind(int inputType) {
+        if((inputType & TYPE_MASK_CLASS) != TYPE_CLASS_TEXT)
+            return -1;
+        switch(inputType & TYPE_MASK_VARIATION) {
+            case TYPE_TEXT_VARIATION_PASSWORD:
+            case TYPE_TEXT_VARIATION_VISIBLE_PASSWORD:
+            case TYPE_TEXT_VARIATION_WEB_PASSWORD:
+                return PASSWORD;
+            case TYPE_TEXT_VARIATION_EMAIL_ADDRESS:
+            case TYPE_TEXT_VARIATION_WEB_EMAIL_ADDRESS:
+                return EMAIL;
+            case TYPE_TEXT_VARIATION_URI:
+                return URI;
+            default:
+                return -1;
+        }
+    }
+}
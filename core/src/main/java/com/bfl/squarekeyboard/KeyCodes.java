@@ -0,0 +1,129 @@
+package com.bfl.squarekeyboard;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Key codes the core refers to. Values are those of android.view.KeyEvent,
+ * so they can be handed to the platform unchanged.
+ */
+public final class KeyCodes {
+    public static final int KEYCODE_UNKNOWN = 0;
+    public static final int KEYCODE_DPAD_UP = 19;
+    public static final int KEYCODE_DPAD_DOWN = 20;
+    public static final int KEYCODE_DPAD_LEFT = 21;
+    public static final int KEYCODE_DPAD_RIGHT = 22;
+    public static final int KEYCODE_DPAD_CENTER = 23;
+    public static final int KEYCODE_VOLUME_UP = 24;
+    public static final int KEYCODE_VOLUME_DOWN = 25;
+    public static final int KEYCODE_SPACE = 62;
+    public static final int KEYCODE_TAB = 61;
+    public static final int KEYCODE_ENTER = 66;
+    public static final int KEYCODE_DEL = 67;
+    public static final int KEYCODE_MENU = 82;
+    public static final int KEYCODE_SEARCH = 84;
+    public static final int KEYCODE_MEDIA_PLAY_PAUSE = 85;
+    public static final int KEYCODE_MEDIA_STOP = 86;
+    public static final int KEYCODE_MEDIA_NEXT = 87;
+    public static final int KEYCODE_MEDIA_PREVIOUS = 88;
+    public static final int KEYCODE_MEDIA_REWIND = 89;
+    public static final int KEYCODE_MEDIA_FAST_FORWARD = 90;
+    public static final int KEYCODE_MUTE = 91;
+    public static final int KEYCODE_PAGE_UP = 92;
+    public static final int KEYCODE_PAGE_DOWN = 93;
+    public static final int KEYCODE_ESCAPE = 111;
+    public static final int KEYCODE_FORWARD_DEL = 112;
+    public static final int KEYCODE_CTRL_LEFT = 113;
+    public static final int KEYCODE_CTRL_RIGHT = 114;
+    public static final int KEYCODE_CAPS_LOCK = 115;
+    public static final int KEYCODE_SCROLL_LOCK = 116;
+    public static final int KEYCODE_SYSRQ = 120;
+    public static final int KEYCODE_BREAK = 121;
+    public static final int KEYCODE_MOVE_HOME = 122;
+    public static final int KEYCODE_MOVE_END = 123;
+    public static final int KEYCODE_INSERT = 124;
+    public static final int KEYCODE_FORWARD = 125;
+    public static final int KEYCODE_MEDIA_PLAY = 126;
+    public static final int KEYCODE_MEDIA_PAUSE = 127;
+    public static final int KEYCODE_F1 = 131;
+    public static final int KEYCODE_F2 = 132;
+    public static final int KEYCODE_F3 = 133;
+    public static final int KEYCODE_F4 = 134;
+    public static final int KEYCODE_F5 = 135;
+    public static final int KEYCODE_F6 = 136;
+    public static final int KEYCODE_F7 = 137;
+    public static final int KEYCODE_F8 = 138;
+    public static final int KEYCODE_F9 = 139;
+    public static final int KEYCODE_F10 = 140;
+    public static final int KEYCODE_F11 = 141;
+    public static final int KEYCODE_F12 = 142;
+    public static final int KEYCODE_NUM_LOCK = 143;
+    public static final int KEYCODE_VOLUME_MUTE = 164;
+
+    private static final Map<String,Integer> sByName = new HashMap<String,Integer>();
+
+    static {
+        sByName.put("KEYCODE_UNKNOWN", KEYCODE_UNKNOWN);
+        sByName.put("KEYCODE_DPAD_UP", KEYCODE_DPAD_UP);
+        sByName.put("KEYCODE_DPAD_DOWN", KEYCODE_DPAD_DOWN);
+        sByName.put("KEYCODE_DPAD_LEFT", KEYCODE_DPAD_LEFT);
+        sByName.put("KEYCODE_DPAD_RIGHT", KEYCODE_DPAD_RIGHT);
+        sByName.put("KEYCODE_DPAD_CENTER", KEYCODE_DPAD_CENTER);
+        sByName.put("KEYCODE_VOLUME_UP", KEYCODE_VOLUME_UP);
+        sByName.put("KEYCODE_VOLUME_DOWN", KEYCODE_VOLUME_DOWN);
+        sByName.put("KEYCODE_SPACE", KEYCODE_SPACE);
+        sByName.put("KEYCODE_TAB", KEYCODE_TAB);
+        sByName.put("KEYCODE_ENTER", KEYCODE_ENTER);
+        sByName.put("KEYCODE_DEL", KEYCODE_DEL);
+        sByName.put("KEYCODE_MENU", KEYCODE_MENU);
+        sByName.put("KEYCODE_SEARCH", KEYCODE_SEARCH);
+        sByName.put("KEYCODE_MEDIA_PLAY_PAUSE", KEYCODE_MEDIA_PLAY_PAUSE);
+        sByName.put("KEYCODE_MEDIA_STOP", KEYCODE_MEDIA_STOP);
+        sByName.put("KEYCODE_MEDIA_NEXT", KEYCODE_MEDIA_NEXT);
+        sByName.put("KEYCODE_MEDIA_PREVIOUS", KEYCODE_MEDIA_PREVIOUS);
+        sByName.put("KEYCODE_MEDIA_REWIND", KEYCODE_MEDIA_REWIND);
+        sByName.put("KEYCODE_MEDIA_FAST_FORWARD", KEYCODE_MEDIA_FAST_FORWARD);
+        sByName.put("KEYCODE_MUTE", KEYCODE_MUTE);
+        sByName.put("KEYCODE_PAGE_UP", KEYCODE_PAGE_UP);
+        sByName.put("KEYCODE_PAGE_DOWN", KEYCODE_PAGE_DOWN);
+        sByName.put("KEYCODE_ESCAPE", KEYCODE_ESCAPE);
+        sByName.put("KEYCODE_FORWARD_DEL", KEYCODE_FORWARD_DEL);
+        sByName.put("KEYCODE_CTRL_LEFT", KEYCODE_CTRL_LEFT);
+        sByName.put("KEYCODE_CTRL_RIGHT", KEYCODE_CTRL_RIGHT);
+        sByName.put("KEYCODE_CAPS_LOCK", KEYCODE_CAPS_LOCK);
+        sByName.put("KEYCODE_SCROLL_LOCK", KEYCODE_SCROLL_LOCK);
+        sByName.put("KEYCODE_SYSRQ", KEYCODE_SYSRQ);
+        sByName.put("KEYCODE_BREAK", KEYCODE_BREAK);
+        sByName.put("KEYCODE_MOVE_HOME", KEYCODE_MOVE_HOME);
+        sByName.put("KEYCODE_MOVE_END", KEYCODE_MOVE_END);
+        sByName.put("KEYCODE_INSERT", KEYCODE_INSERT);
+        sByName.put("KEYCODE_FORWARD", KEYCODE_FORWARD);
+        sByName.put("KEYCODE_MEDIA_PLAY", KEYCODE_MEDIA_PLAY);
+        sByName.put("KEYCODE_MEDIA_PAUSE", KEYCODE_MEDIA_PAUSE);
+        sByName.put("KEYCODE_F1", KEYCODE_F1);
+        sByName.put("KEYCODE_F2", KEYCODE_F2);
+        sByName.put("KEYCODE_F3", KEYCODE_F3);
+        sByName.put("KEYCODE_F4", KEYCODE_F4);
+        sByName.put("KEYCODE_F5", KEYCODE_F5);
+        sByName.put("KEYCODE_F6", KEYCODE_F6);
+        sByName.put("KEYCODE_F7", KEYCODE_F7);
+        sByName.put("KEYCODE_F8", KEYCODE_F8);
+        sByName.put("KEYCODE_F9", KEYCODE_F9);
+        sByName.put("KEYCODE_F10", KEYCODE_F10);
+        sByName.put("KEYCODE_F11", KEYCODE_F11);
+        sByName.put("KEYCODE_F12", KEYCODE_F12);
+        sByName.put("KEYCODE_NUM_LOCK", KEYCODE_NUM_LOCK);
+        sByName.put("KEYCODE_VOLUME_MUTE", KEYCODE_VOLUME_MUTE);
+    }
+
+    private KeyCodes() {
+    }
+
+    /**
+     * Key code for a KEYCODE_* name as in android.view.KeyEvent, or
+     * KEYCODE_UNKNOWN if it is not one of the codes listed here.
+     */
+    public static int fromName(String name) {
+        Integer code = sByName.get(name);
+        return code != null ? code : KEYCODE_UNKNOWN;
+    }
+}
@@ -0,0 +1,113 @@
+package com.bfl.squarekeyboard;
+import java.util.Arrays;
+
+/**
+ * How likely one letter is typed for another, from where the keys are:
+ * letters on grid cells next to each other in the same layer, or on the
+ * same cell in different swipe layers, are NEAR; next to each other in
+ * different layers is FAR; anything else is OTHER. Built from the
+ * resolved keys of the current state, see SpatialCorrector for when.
+ */
+public final class KeyNeighbors {
+    static final int SAME = 0;
+    static final int NEAR = 1;
+    static final int FAR = 2;
+    static final int OTHER = 3;
+
+    // letters on the keyboard, lower case and sorted, and the cost of
+    // typing one for another indexed [a*n+b]
+    private final char[] mChars;
+    private final byte[] mCost;
+
+    private KeyNeighbors(char[] chars, byte[] cost) {
+        mChars = chars;
+        mCost = cost;
+    }
+
+    public int cost(char a, char b) {
+        if(a == b)
+            return SAME;
+        int x = Arrays.binarySearch(mChars, a);
+        int y = Arrays.binarySearch(mChars, b);
+        if(x < 0 || y < 0)
+            return OTHER;
+        return mCost[x*mChars.length + y];
+    }
+
+    // the letter a key types, 0 if none
+    private static char letterOf(SquareKeyboard.Key k) {
+        if(!(k instanceof SquareKeyboard.TypeKey))
+            return 0;
+        String text = ((SquareKeyboard.TypeKey) k).text;
+        if(text.length() != 1 || !WordPredictor.isWordChar(text.charAt(0)))
+            return 0;
+        return Character.toLowerCase(text.charAt(0));
+    }
+
+    public static KeyNeighbors build(SquareKeyboard kb) {
+        int rows = kb.getRows(), cols = kb.getCols();
+        int layers = SquareKeyboard.N_ANGLES+1;
+        // letter of every layer of every cell, [row][col][swipe]
+        char[][][] cell = new char[rows][cols][layers];
+        char[] seen = new char[rows*cols*layers];
+        int n = 0;
+        for(int i = 0; i < rows; i++) {
+            for(int j = 0; j < cols; j++) {
+                for(int s = 0; s < layers; s++) {
+                    if(s == SquareKeyboard.SWIPE_DISPLAY)
+                        continue;
+                    char c = letterOf(kb.getKey(i, j, s));
+                    cell[i][j][s] = c;
+                    if(c != 0)
+                        seen[n++] = c;
+                }
+            }
+        }
+        Arrays.sort(seen, 0, n);
+        int distinct = 0;
+        for(int k = 0; k < n; k++) {
+            if(distinct == 0 || seen[k] != seen[distinct-1])
+                seen[distinct++] = seen[k];
+        }
+        char[] chars = Arrays.copyOf(seen, distinct);
+        byte[] cost = new byte[distinct*distinct];
+        Arrays.fill(cost, (byte) OTHER);
+        KeyNeighbors kn = new KeyNeighbors(chars, cost);
+        for(int i = 0; i < rows; i++) {
+            for(int j = 0; j < cols; j++) {
+                for(int di = -1; di <= 1; di++) {
+                    for(int dj = -1; dj <= 1; dj++) {
+                        int i2 = i+di, j2 = j+dj;
+                        if(i2 < 0 || i2 >= rows || j2 < 0 || j2 >= cols)
+                            continue;
+                        boolean same = di == 0 && dj == 0;
+                        kn.link(cell[i][j], cell[i2][j2], same);
+                    }
+                }
+            }
+        }
+        return kn;
+    }
+
+    // records the letters of two cells, or one cell twice, as neighbors
+    private void link(char[] a, char[] b, boolean sameCell) {
+        for(int s = 0; s < a.length; s++) {
+            if(a[s] == 0)
+                continue;
+            int x = Arrays.binarySearch(mChars, a[s]);
+            for(int t = 0; t < b.length; t++) {
+                if(b[t] == 0 || b[t] == a[s])
+                    continue;
+                int c;
+                if(sameCell)
+                    c = NEAR;
+                else
+                    c = s == t ? NEAR : FAR;
+                int y = Arrays.binarySearch(mChars, b[t]);
+                int k = x*mChars.length + y;
+                if(c < mCost[k])
+                    mCost[k] = (byte) c;
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.bfl.squarekeyboard;
+import java.util.Arrays;
+
+/**
+ * Turns touches into key presses on a SquareKeyboard: hit testing against
+ * the key geometry, swipe direction and the state of each pointer.
+ * SquareKeyboardView draws what this tracks; kept free of Android so
+ * recorded touches can be replayed off-device.
+ */
+public class KeyTracker implements TouchHandler {
+
+    /** What a view needs to know to redraw. All optional. */
+    public interface Callback {
+        // the key of pointer id changed from oldI,oldJ, -1 if none
+        void onActiveChanged(int id, int oldI, int oldJ);
+        // the previewed pointer, its key or direction changed
+        void onPreviewChanged();
+        // key rectangles were recomputed
+        void onGeometryChanged();
+        // call repeat() after delay ms, replacing any earlier request
+        void scheduleRepeat(long delay);
+        void cancelRepeat();
+    }
+
+    // state of each pointer, indexed by pointer id; ids from MAX_POINTERS
+    // up are ignored
+    static final int MAX_POINTERS = 10;
+    final boolean[] mDown = new boolean[MAX_POINTERS];
+    final float[] mStartX = new float[MAX_POINTERS];
+    final float[] mStartY = new float[MAX_POINTERS];
+    final int[] mActiveI = new int[MAX_POINTERS];
+    final int[] mActiveJ = new int[MAX_POINTERS];
+    final int[] mActiveDir = new int[MAX_POINTERS];
+    // pointer whose key is previewed, -1 if none
+    int mPreviewPointer = -1;
+
+    int sweepTreshold = 50;
+
+    // pointer holding an auto-repeating key, -1 if none
+    int mRepeatPointer = -1;
+    int mRepeatI, mRepeatJ;
+    long mRepeatInterval;
+    // the pointer's key has repeated, so releasing it presses nothing
+    final boolean[] mRepeated = new boolean[MAX_POINTERS];
+
+    SquareKeyboard mKeyboard;
+    Callback mCallback;
+    int mRows, mCols;
+    int mRowHeight;
+    int mLineThickness;
+    int mWidth;
+    float mColWidth;
+
+    // key rectangles of the current state in pixels, indexed [row][col],
+    // rebuilt by updateGeometry() when the state or width changes
+    float[][] mKeyX0, mKeyX1;
+    // column of the key under each pixel of a row, -1 if none
+    int[][] mHitCol;
+    // the core tables and width the above were computed from
+    float[][] mGeomX, mGeomW;
+    int mGeomWidth = -1;
+
+    public KeyTracker(int rowHeight, int lineThickness) {
+        mRowHeight = rowHeight;
+        mLineThickness = lineThickness;
+        reset();
+    }
+
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    public void setKeyboard(SquareKeyboard keyboard) {
+        mKeyboard = keyboard;
+        mRows = keyboard.getRows();
+        mCols = keyboard.getCols();
+        mGeomX = null;
+        // active keys might not exist in the new keyboard
+        reset();
+    }
+
+    public void setWidth(int width) {
+        mWidth = width;
+    }
+
+    /** Forgets all pointers without pressing anything. */
+    public void reset() {
+        stopRepeat();
+        for(int id = 0; id < MAX_POINTERS; id++) {
+            mDown[id] = false;
+            mRepeated[id] = false;
+            mActiveI[id] = mActiveJ[id] = -1;
+            mActiveDir[id] = 0;
+        }
+        mPreviewPointer = -1;
+    }
+
+    int xToJ(int i, float x) {
+        if( i < 0 || x < 0 || x >= mGeomWidth ) return -1;
+        return mHitCol[i][(int) x];
+    }
+
+    int yToI(float y) {
+        int i =  (int) (y / mRowHeight);
+        if( y < 1 || i < 0 || i >= mRows ) return -1;
+        return i;
+    }
+
+    // tan(22.5 degrees), edge between a straight and a diagonal octant
+    private static final float TAN_OCTANT = 0.41421356f;
+    // swipe direction by [kind][dy < 0][dx < 0], kind 0 is horizontal,
+    // 1 vertical and 2 diagonal. y grows downwards.
+    private static final int[][][] OCTANTS = {
+        { { SquareKeyboard.SWIPE_RIGHT, SquareKeyboard.SWIPE_LEFT },
+          { SquareKeyboard.SWIPE_RIGHT, SquareKeyboard.SWIPE_LEFT } },
+        { { SquareKeyboard.SWIPE_DOWN, SquareKeyboard.SWIPE_DOWN },
+          { SquareKeyboard.SWIPE_UP, SquareKeyboard.SWIPE_UP } },
+        { { SquareKeyboard.SWIPE_DOWN_RIGHT, SquareKeyboard.SWIPE_DOWN_LEFT },
+          { SquareKeyboard.SWIPE_UP_RIGHT, SquareKeyboard.SWIPE_UP_LEFT } },
+    };
+
+    int calcAngle(float dx, float dy) {
+        if(dx*dx+dy*dy < sweepTreshold*sweepTreshold)
+            return 0;
+        float ax = Math.abs(dx), ay = Math.abs(dy);
+        int kind;
+        if(!mKeyboard.hasDiagonalSwipes()) {
+            // four directions, split at 45 degrees
+            kind = ax > ay ? 0 : 1;
+        } else if(ay < ax*TAN_OCTANT) {
+            kind = 0;
+        } else if(ax < ay*TAN_OCTANT) {
+            kind = 1;
+        } else {
+            kind = 2;
+        }
+        return OCTANTS[kind][dy < 0 ? 1 : 0][dx < 0 ? 1 : 0];
+    }
+
+    /**
+     * Recomputes key rectangles and the hit test table if the state or
+     * width changed since last time. Cheap when nothing changed.
+     */
+    public void updateGeometry() {
+        float[][] keyX = mKeyboard.getKeyX();
+        if( keyX == mGeomX && mGeomWidth == mWidth)
+            return;
+        float[][] keyW = mKeyboard.getKeyWidth();
+        mColWidth = (float)(mWidth-mLineThickness)/ mCols;
+        if( mKeyX0 == null || mKeyX0.length != mRows || mKeyX0[0].length != mCols) {
+            mKeyX0 = new float[mRows][mCols];
+            mKeyX1 = new float[mRows][mCols];
+        }
+        int width = Math.max(mWidth, 0);
+        if( mHitCol == null || mHitCol.length != mRows || mHitCol[0].length != width) {
+            mHitCol = new int[mRows][width];
+        }
+        for(int i = 0; i < mRows; i++) {
+            Arrays.fill(mHitCol[i], -1);
+            for(int j = 0; j < mCols; j++) {
+                // intervals inclusive [x0, x1]
+                float left = keyX[i][j]*mColWidth;
+                float right = (keyX[i][j]+keyW[i][j])*mColWidth;
+                mKeyX0[i][j] = left+mLineThickness;
+                mKeyX1[i][j] = right;
+                if( keyW[i][j] <= 0)
+                    continue;
+                int end = Math.min((int) right, width);
+                for(int x = (int) left; x < end; x++)
+                    mHitCol[i][x] = j;
+            }
+        }
+        mGeomX = keyX;
+        mGeomW = keyW;
+        mGeomWidth = mWidth;
+        if(mCallback != null)
+            mCallback.onGeometryChanged();
+    }
+
+    public void onTouchDown(int id, float x, float y) {
+        if(id < 0 || id >= MAX_POINTERS)
+            return;
+        mDown[id] = true;
+        mRepeated[id] = false;
+        mStartX[id] = x;
+        mStartY[id] = y;
+        mPreviewPointer = id;
+        onTouchMove(id, x, y);
+        int i = mActiveI[id], j = mActiveJ[id];
+        if(i >= 0 && mKeyboard.isRepeating(i, j, 0)) {
+            mRepeatPointer = id;
+            mRepeatI = i;
+            mRepeatJ = j;
+            mRepeatInterval = mKeyboard.getRepeatInterval();
+            if(mCallback != null)
+                mCallback.scheduleRepeat(mKeyboard.getRepeatDelay());
+        }
+    }
+
+    /**
+     * Presses the held auto-repeating key once more. Returns the delay
+     * until the next repeat, which shrinks with every repeat, or -1 when
+     * the key is no longer held.
+     */
+    public long repeat() {
+        if(mRepeatPointer < 0)
+            return -1;
+        mRepeated[mRepeatPointer] = true;
+        mKeyboard.onKeyPress(mRepeatI, mRepeatJ, 0);
+        if(mRepeatPointer < 0)
+            return -1;
+        long delay = mRepeatInterval;
+        mRepeatInterval = Math.max(mKeyboard.getRepeatMinInterval(), mRepeatInterval*7/8);
+        return delay;
+    }
+
+    private void stopRepeat() {
+        if(mRepeatPointer < 0)
+            return;
+        mRepeatPointer = -1;
+        if(mCallback != null)
+            mCallback.cancelRepeat();
+    }
+
+    public void onTouchMove(int id,float x, float y) {
+        if(id < 0 || id >= MAX_POINTERS || !mDown[id])
+            return;
+        updateGeometry();
+        int i = yToI(y), j = xToJ(i,x), dir = calcAngle(x-mStartX[id],y-mStartY[id]);
+        if(j == -1) i = -1;
+        setActive(id, i, j, dir);
+    }
+
+    // moves the highlight of pointer id, the preview follows the pointer
+    // that changed last
+    private void setActive(int id, int i, int j, int dir) {
+        int oldI = mActiveI[id];
+        int oldJ = mActiveJ[id];
+        if(oldI == i && oldJ == j && mActiveDir[id] == dir)
+            return;
+        // sliding off or swiping ends the repeat, but not the press
+        if(id == mRepeatPointer)
+            stopRepeat();
+        mActiveI[id] = i; mActiveJ[id] = j;
+        mActiveDir[id] = dir;
+        if(i >= 0)
+            mPreviewPointer = id;
+        if(mCallback == null)
+            return;
+        if(mPreviewPointer == id)
+            mCallback.onPreviewChanged();
+        if(oldI != i || oldJ != j)
+            mCallback.onActiveChanged(id, oldI, oldJ);
+    }
+
+    public void onTouchUp(int id,float x, float y) {
+        if(id < 0 || id >= MAX_POINTERS || !mDown[id])
+            return;
+        updateGeometry();
+        int i = yToI(y), j = xToJ(i,x), dir = calcAngle(x-mStartX[id],y-mStartY[id]);
+        if(j == -1) i = -1;
+        boolean repeated = mRepeated[id];
+        // release first, pressing may switch state or the whole keyboard
+        mDown[id] = false;
+        setActive(id, -1, -1, 0);
+        if(mPreviewPointer == id) {
+            mPreviewPointer = otherDownPointer();
+            if(mCallback != null)
+                mCallback.onPreviewChanged();
+        }
+        if( i < 0 || repeated) return;
+        mKeyboard.onKeyPress(i,j,dir);
+    }
+
+    public void onTouchCancel() {
+        stopRepeat();
+        for(int id = 0; id < MAX_POINTERS; id++) {
+            if(mDown[id]) {
+                mDown[id] = false;
+                setActive(id, -1, -1, 0);
+            }
+        }
+        mPreviewPointer = -1;
+        if(mCallback != null)
+            mCallback.onPreviewChanged();
+    }
+
+    // some pointer still on a key, to keep previewing after a release
+    private int otherDownPointer() {
+        for(int id = MAX_POINTERS-1; id >= 0; id--) {
+            if(mDown[id] && mActiveI[id] >= 0)
+                return id;
+        }
+        return -1;
+    }
+}
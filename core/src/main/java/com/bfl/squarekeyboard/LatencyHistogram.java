@@ -0,0 +1,120 @@
+package com.bfl.squarekeyboard;
+import java.io.PrintWriter;
+
+/**
+ * Fixed size histogram of durations in microseconds. Buckets are exact
+ * below 16us and then split each power of two in 8, so quantiles are
+ * within 12.5%. Recording never allocates. Other non-negative counts can
+ * be kept with a different unit for dump().
+ *
+ * Not synchronized; meant to be recorded from the UI thread. A dump from
+ * another thread may see a sample half recorded, which is fine for stats.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int LINEAR = 2*SUB;
+    // values from 2^MAX_EXP us (about 12 days) up go in the last bucket
+    private static final int MAX_EXP = 40;
+    static final int BUCKETS = LINEAR + (MAX_EXP-SUB_BITS-1)*SUB;
+
+    private final String mName;
+    private final String mUnit;
+    private final long[] mCounts = new long[BUCKETS];
+    private long mCount, mSum, mMin, mMax;
+
+    public LatencyHistogram(String name) {
+        this(name, "us");
+    }
+
+    public LatencyHistogram(String name, String unit) {
+        mName = name;
+        mUnit = unit;
+        reset();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++)
+            mCounts[i] = 0;
+        mCount = mSum = mMax = 0;
+        mMin = Long.MAX_VALUE;
+    }
+
+    static int bucketOf(long micros) {
+        if(micros < LINEAR)
+            return micros < 0 ? 0 : (int) micros;
+        int e = 63 - Long.numberOfLeadingZeros(micros);
+        if(e >= MAX_EXP)
+            return BUCKETS-1;
+        int sub = (int) (micros >>> (e-SUB_BITS)) & (SUB-1);
+        return LINEAR + (e-SUB_BITS-1)*SUB + sub;
+    }
+
+    // largest value falling in bucket b
+    static long bucketMax(int b) {
+        if(b < LINEAR)
+            return b;
+        int e = (b-LINEAR)/SUB + SUB_BITS+1;
+        int sub = (b-LINEAR)%SUB;
+        return (1L << e) + ((long) (sub+1) << (e-SUB_BITS)) - 1;
+    }
+
+    public void record(long micros) {
+        if(micros < 0)
+            micros = 0;
+        mCounts[bucketOf(micros)]++;
+        mCount++;
+        mSum += micros;
+        if(micros < mMin) mMin = micros;
+        if(micros > mMax) mMax = micros;
+    }
+
+    /** Records the time from System.nanoTime() value start until now. */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    /** Upper bound of the q quantile (0..1), in microseconds. */
+    public long quantile(double q) {
+        if(mCount == 0)
+            return 0;
+        long rank = (long) Math.ceil(q * mCount);
+        if(rank < 1) rank = 1;
+        long seen = 0;
+        for(int b = 0; b < BUCKETS; b++) {
+            seen += mCounts[b];
+            if(seen >= rank)
+                return Math.min(Math.max(bucketMax(b), mMin), mMax);
+        }
+        return mMax;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix);
+        pw.print(mName);
+        if(mCount == 0) {
+            pw.println(": no samples");
+            return;
+        }
+        String u = mUnit;
+        pw.println(": n=" + mCount + " min=" + mMin + u + " mean=" + getMean()
+                + u + " p50=" + quantile(0.5) + u + " p90=" + quantile(0.9)
+                + u + " p99=" + quantile(0.99) + u + " max=" + mMax + u);
+    }
+}
@@ -0,0 +1,92 @@
+package com.bfl.squarekeyboard;
+import java.util.Arrays;
+
+/**
+ * What a macro key does: text, key events and cursor moves, in order.
+ * Built once when the layout is parsed, so running one only walks the
+ * arrays; see ActionListener.onMacro().
+ */
+public final class Macro {
+    public static final int TEXT = 0;
+    public static final int KEY = 1;
+    // the cursor moves by getArg() chars, negative to the left
+    public static final int MOVE = 2;
+
+    private final int[] mOps;
+    // key code or distance, by step
+    private final int[] mArgs;
+    private final String[] mTexts;
+
+    private Macro(int[] ops, int[] args, String[] texts) {
+        mOps = ops;
+        mArgs = args;
+        mTexts = texts;
+    }
+
+    public int size() {
+        return mOps.length;
+    }
+
+    public int getOp(int i) {
+        return mOps[i];
+    }
+
+    public int getArg(int i) {
+        return mArgs[i];
+    }
+
+    public String getText(int i) {
+        return mTexts[i];
+    }
+
+    static final class Builder {
+        private int[] mOps = new int[8];
+        private int[] mArgs = new int[8];
+        private String[] mTexts = new String[8];
+        private int mSize;
+
+        private void add(int op, int arg, String text) {
+            if(mSize == mOps.length) {
+                mOps = Arrays.copyOf(mOps, 2*mSize);
+                mArgs = Arrays.copyOf(mArgs, 2*mSize);
+                mTexts = Arrays.copyOf(mTexts, 2*mSize);
+            }
+            mOps[mSize] = op;
+            mArgs[mSize] = arg;
+            mTexts[mSize] = text;
+            mSize++;
+        }
+
+        Builder text(String text) {
+            // one commit for text following text
+            if(mSize > 0 && mOps[mSize-1] == TEXT)
+                mTexts[mSize-1] += text;
+            else
+                add(TEXT, 0, text);
+            return this;
+        }
+
+        Builder key(int keyCode) {
+            add(KEY, keyCode, null);
+            return this;
+        }
+
+        Builder move(int chars) {
+            // and one cursor move for moves in a row
+            if(mSize > 0 && mOps[mSize-1] == MOVE)
+                mArgs[mSize-1] += chars;
+            else
+                add(MOVE, chars, null);
+            return this;
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        Macro build() {
+            return new Macro(Arrays.copyOf(mOps, mSize),
+                    Arrays.copyOf(mArgs, mSize), Arrays.copyOf(mTexts, mSize));
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.bfl.squarekeyboard;
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Personal word, bigram and trigram counts learned from committed text.
+ * All tables are allocated up front and never grow: when one fills up,
+ * every count is halved and what drops to zero is forgotten, so words
+ * used rarely or long ago make room first.
+ *
+ * Words are lower case and numbered densely; an n-gram is a long key of
+ * its word ids in an open addressing table. Learning happens on a
+ * background thread while complete() runs on the UI thread, hence the
+ * lock. complete() never waits for it: while a learn() or a decay holds
+ * it, the keystroke gets no learned words.
+ */
+public final class NgramModel {
+    private static final int ID_BITS = 21;
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+    private static final long BIGRAM = 1L << 62, TRIGRAM = 2L << 62;
+    // a trigram's first id takes bits 42 up and must stay clear of the
+    // tag in bits 62 and 63, so ids get one bit less than ID_BITS
+    static final int MAX_WORDS = 1 << (ID_BITS - 1);
+    // a word is only suggested once used this often
+    static final int MIN_COUNT = 2;
+
+    private final int mMaxWords, mMaxNgrams;
+    // by word id
+    private final String[] mWords;
+    private final int[] mWordCount;
+    private int mWordSize;
+    // word id+1 by hash, 0 is empty
+    private final int[] mWordSlots;
+    // n-gram key and count by hash, count 0 is empty
+    private final long[] mKeys;
+    private final int[] mCounts;
+    private int mNgramSize;
+
+    // ids of the last two learned words, -1 after a context break
+    private int mPrev1 = -1, mPrev2 = -1;
+    // guards everything above
+    private final ReentrantLock mLock = new ReentrantLock();
+    // scores of the words complete() collects
+    private long[] mScores = new long[0];
+
+    public NgramModel(int maxWords, int maxNgrams) {
+        if(maxWords > MAX_WORDS)
+            throw new IllegalArgumentException("too many words");
+        mMaxWords = maxWords;
+        mMaxNgrams = maxNgrams;
+        mWords = new String[maxWords];
+        mWordCount = new int[maxWords];
+        mWordSlots = new int[tableSize(maxWords)];
+        mKeys = new long[tableSize(maxNgrams)];
+        mCounts = new int[mKeys.length];
+    }
+
+    // power of two at least twice n, so probes stay short
+    private static int tableSize(int n) {
+        return Integer.highestOneBit(Math.max(n, 2)*2 - 1) * 2;
+    }
+
+    private static int mix(long k) {
+        k *= 0x9E3779B97F4A7C15L;
+        return (int) (k ^ (k >>> 32));
+    }
+
+    public int getWordCount() {
+        mLock.lock();
+        try {
+            return mWordSize;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getNgramCount() {
+        mLock.lock();
+        try {
+            return mNgramSize;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // ------------------------------------------------------------ learning
+
+    /**
+     * Learns the words in text, continuing the context of the last call.
+     * Sentence ends and line breaks break the context.
+     */
+    public void learn(CharSequence text) {
+        mLock.lock();
+        try {
+            int n = text.length();
+            int i = 0;
+            while(i < n) {
+                char c = text.charAt(i);
+                if(!WordPredictor.isWordChar(c)) {
+                    if(c == '.' || c == '!' || c == '?' || c == '\n')
+                        mPrev1 = mPrev2 = -1;
+                    i++;
+                    continue;
+                }
+                int start = i;
+                while(i < n && WordPredictor.isWordChar(text.charAt(i)))
+                    i++;
+                if(i - start <= TrieDictionary.MAX_WORD)
+                    learnWord(text.subSequence(start, i).toString().toLowerCase());
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /** The cursor moved; the next word follows nothing. */
+    public void breakContext() {
+        mLock.lock();
+        try {
+            mPrev1 = mPrev2 = -1;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void learnWord(String word) {
+        // make room first, decay renumbers the words
+        if(mNgramSize >= mMaxNgrams - 2 || mWordSize == mMaxWords && findWord(word) < 0)
+            decay();
+        int id = findWord(word);
+        if(id < 0)
+            id = addWord(word);
+        mWordCount[id]++;
+        if(mPrev1 >= 0)
+            increment(BIGRAM | (long) mPrev1 << ID_BITS | id);
+        if(mPrev2 >= 0)
+            increment(TRIGRAM | (long) mPrev2 << 2*ID_BITS | (long) mPrev1 << ID_BITS | id);
+        mPrev2 = mPrev1;
+        mPrev1 = id;
+    }
+
+    private int findWord(String word) {
+        int mask = mWordSlots.length - 1;
+        for(int h = word.hashCode() & mask; ; h = (h+1) & mask) {
+            int s = mWordSlots[h];
+            if(s == 0)
+                return -1;
+            if(mWords[s-1].equals(word))
+                return s-1;
+        }
+    }
+
+    private int addWord(String word) {
+        int id = mWordSize++;
+        mWords[id] = word;
+        mWordCount[id] = 0;
+        int mask = mWordSlots.length - 1;
+        int h = word.hashCode() & mask;
+        while(mWordSlots[h] != 0)
+            h = (h+1) & mask;
+        mWordSlots[h] = id+1;
+        return id;
+    }
+
+    private int slot(long key) {
+        int mask = mKeys.length - 1;
+        int h = mix(key) & mask;
+        while(mCounts[h] != 0 && mKeys[h] != key)
+            h = (h+1) & mask;
+        return h;
+    }
+
+    private void increment(long key) {
+        int h = slot(key);
+        if(mCounts[h] == 0) {
+            mKeys[h] = key;
+            mNgramSize++;
+        }
+        if(mCounts[h] < Integer.MAX_VALUE)
+            mCounts[h]++;
+    }
+
+    private int count(long key) {
+        return mCounts[slot(key)];
+    }
+
+    /**
+     * Halves all counts until at most three quarters of each table is in
+     * use, dropping what reaches zero and renumbering the words left.
+     */
+    private void decay() {
+        do {
+            halve();
+        } while(mWordSize > mMaxWords*3/4 || mNgramSize > mMaxNgrams*3/4);
+    }
+
+    private void halve() {
+        // new id of every word, -1 if dropped
+        int[] map = new int[mWordSize];
+        int words = 0;
+        for(int id = 0; id < mWordSize; id++) {
+            int c = mWordCount[id] / 2;
+            if(c == 0) {
+                map[id] = -1;
+                mWords[id] = null;
+                continue;
+            }
+            map[id] = words;
+            mWords[words] = mWords[id];
+            mWordCount[words] = c;
+            words++;
+        }
+        for(int id = words; id < mWordSize; id++)
+            mWords[id] = null;
+        mWordSize = 0;
+        Arrays.fill(mWordSlots, 0);
+        for(int id = 0; id < words; id++) {
+            int count = mWordCount[id];
+            addWord(mWords[id]);
+            mWordCount[id] = count;
+        }
+        mPrev1 = mPrev1 < 0 ? -1 : map[mPrev1];
+        mPrev2 = mPrev2 < 0 || mPrev1 < 0 ? -1 : map[mPrev2];
+
+        long[] keys = new long[mNgramSize];
+        int[] counts = new int[mNgramSize];
+        int n = 0;
+        for(int h = 0; h < mKeys.length; h++) {
+            int c = mCounts[h] / 2;
+            if(mCounts[h] == 0)
+                continue;
+            mCounts[h] = 0;
+            long key = remap(mKeys[h], map);
+            if(c == 0 || key == 0)
+                continue;
+            keys[n] = key;
+            counts[n] = c;
+            n++;
+        }
+        mNgramSize = 0;
+        for(int k = 0; k < n; k++) {
+            int h = slot(keys[k]);
+            mKeys[h] = keys[k];
+            mCounts[h] = counts[k];
+            mNgramSize++;
+        }
+    }
+
+    // key with its word ids renumbered, 0 if one was dropped
+    private static long remap(long key, int[] map) {
+        long out = key & (3L << 62);
+        int words = out == TRIGRAM ? 3 : 2;
+        for(int w = 0; w < words; w++) {
+            int shift = w*ID_BITS;
+            int id = map[(int) (key >>> shift & ID_MASK)];
+            if(id < 0)
+                return 0;
+            out |= (long) id << shift;
+        }
+        return out;
+    }
+
+    // ---------------------------------------------------------- prediction
+
+    /**
+     * Puts up to out.length learned words starting with prefix (lower
+     * case) into out, best first, ranked by how often they followed prev2
+     * prev1, then prev1, then at all. Either context word may be null.
+     * Returns the number of words found, or -1 without waiting if the
+     * model is being changed.
+     */
+    public int complete(String prev2, String prev1, String prefix, String[] out) {
+        if(!mLock.tryLock())
+            return -1;
+        try {
+            int p1 = prev1 == null ? -1 : findWord(prev1);
+            int p2 = prev2 == null || p1 < 0 ? -1 : findWord(prev2);
+            int n = 0;
+            if(mScores.length < out.length)
+                mScores = new long[out.length];
+            long[] scores = mScores;
+            for(int id = 0; id < mWordSize; id++) {
+                String w = mWords[id];
+                if(mWordCount[id] < MIN_COUNT || !w.startsWith(prefix))
+                    continue;
+                long score = mWordCount[id];
+                if(p1 >= 0) {
+                    score += (long) count(BIGRAM | (long) p1 << ID_BITS | id) << 16;
+                    if(p2 >= 0)
+                        score += (long) count(TRIGRAM | (long) p2 << 2*ID_BITS | (long) p1 << ID_BITS | id) << 32;
+                }
+                if(n == out.length && score <= scores[n-1])
+                    continue;
+                int i = n < out.length ? n++ : n-1;
+                while(i > 0 && scores[i-1] < score) {
+                    scores[i] = scores[i-1];
+                    out[i] = out[i-1];
+                    i--;
+                }
+                scores[i] = score;
+                out[i] = w;
+            }
+            return n;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // ------------------------------------------------------------ snapshot
+
+    private static final int MAGIC = 0x53514e47; // "SQNG"
+    private static final int VERSION = 1;
+
+    /** The whole model, for NgramStore to save. */
+    public byte[] toByteArray() {
+        mLock.lock();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + mWordSize*12 + mNgramSize*12);
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(mWordSize);
+                for(int id = 0; id < mWordSize; id++) {
+                    out.writeUTF(mWords[id]);
+                    out.writeInt(mWordCount[id]);
+                }
+                out.writeInt(mNgramSize);
+                for(int h = 0; h < mKeys.length; h++) {
+                    if(mCounts[h] == 0)
+                        continue;
+                    out.writeLong(mKeys[h]);
+                    out.writeInt(mCounts[h]);
+                }
+                out.writeInt(mPrev1);
+                out.writeInt(mPrev2);
+            } catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+            return bytes.toByteArray();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /** Replaces the model by a toByteArray() snapshot. */
+    public void read(DataInputStream in) throws IOException {
+        mLock.lock();
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("not an n-gram snapshot");
+            int words = in.readInt();
+            if(words < 0 || words > mMaxWords)
+                throw new IOException("bad word count " + words);
+            mWordSize = 0;
+            Arrays.fill(mWordSlots, 0);
+            for(int id = 0; id < words; id++) {
+                addWord(in.readUTF());
+                mWordCount[id] = in.readInt();
+            }
+            int ngrams = in.readInt();
+            if(ngrams < 0 || ngrams > mMaxNgrams)
+                throw new IOException("bad n-gram count " + ngrams);
+            Arrays.fill(mCounts, 0);
+            mNgramSize = 0;
+            for(int k = 0; k < ngrams; k++) {
+                long key = in.readLong();
+                int h = slot(key);
+                mKeys[h] = key;
+                mCounts[h] = in.readInt();
+                mNgramSize++;
+            }
+            mPrev1 = in.readInt();
+            mPrev2 = in.readInt();
+            if(mPrev1 >= words || mPrev2 >= words)
+                mPrev1 = mPrev2 = -1;
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.bfl.squarekeyboard;
+import java.io.*;
+
+/**
+ * Keeps an NgramModel on disk as a snapshot plus an append-only log of
+ * what was learned since. Learning appends one small record; once the
+ * log grows past COMPACT_SIZE the model is snapshotted and the log
+ * started over. Loading reads the snapshot and replays the log, so the
+ * model comes back exactly as it was. A record cut short by a crash is
+ * ignored and cut off the log, so later records are not appended
+ * behind it.
+ *
+ * Not thread safe; meant to be used from one background thread.
+ */
+public final class NgramStore {
+    static final long COMPACT_SIZE = 64*1024;
+
+    private static final int LOG_TEXT = 0;
+    private static final int LOG_BREAK = 1;
+    private static final String TAG = "NgramStore";
+
+    private final NgramModel mModel;
+    private final File mSnapshot, mLog;
+    private DataOutputStream mOut;
+
+    /** Files named name.bin and name.log in dir. */
+    public NgramStore(NgramModel model, File dir, String name) {
+        mModel = model;
+        mSnapshot = new File(dir, name + ".bin");
+        mLog = new File(dir, name + ".log");
+    }
+
+    public NgramModel getModel() {
+        return mModel;
+    }
+
+    /**
+     * Reads the snapshot and replays the log into the model. The log is
+     * cut back to its last complete record. Throws if the files cannot
+     * be read; the model is then incomplete and must not be saved over
+     * them.
+     */
+    public void load() throws IOException {
+        if(mSnapshot.exists()) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mSnapshot)));
+            try {
+                mModel.read(in);
+            } finally {
+                in.close();
+            }
+        }
+        if(!mLog.exists())
+            return;
+        byte[] data = new byte[(int) mLog.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(mLog));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        int end = replay(data);
+        if(end < data.length) {
+            CoreLog.w(TAG, "cutting " + (data.length - end) + " bytes off " + mLog, null);
+            FileOutputStream out = new FileOutputStream(mLog, true);
+            try {
+                out.getChannel().truncate(end);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    // learns the records in data, returns the length of those complete
+    private int replay(byte[] data) {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        DataInputStream in = new DataInputStream(bytes);
+        int end = 0;
+        try {
+            while(true) {
+                int type = in.read();
+                if(type == LOG_TEXT) {
+                    mModel.learn(in.readUTF());
+                } else if(type == LOG_BREAK) {
+                    mModel.breakContext();
+                } else {
+                    break;
+                }
+                end = data.length - bytes.available();
+            }
+        } catch(IOException e) {
+            // the last record was not finished, or garbled
+        }
+        return end;
+    }
+
+    public void learn(String text) throws IOException {
+        mModel.learn(text);
+        log().writeByte(LOG_TEXT);
+        mOut.writeUTF(text);
+        mOut.flush();
+        compactIfNeeded();
+    }
+
+    public void breakContext() throws IOException {
+        mModel.breakContext();
+        log().writeByte(LOG_BREAK);
+        mOut.flush();
+    }
+
+    private DataOutputStream log() throws IOException {
+        if(mOut == null)
+            mOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(mLog, true)));
+        return mOut;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if(mLog.length() < COMPACT_SIZE)
+            return;
+        compact();
+    }
+
+    /** Writes a snapshot of the model and empties the log. */
+    public void compact() throws IOException {
+        byte[] data = mModel.toByteArray();
+        File tmp = new File(mSnapshot.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if(!tmp.renameTo(mSnapshot))
+            throw new IOException("cannot replace " + mSnapshot);
+        close();
+        // a crash before this replays records already in the snapshot,
+        // which only counts them twice
+        new FileOutputStream(mLog).close();
+    }
+
+    public void close() throws IOException {
+        if(mOut != null) {
+            mOut.close();
+            mOut = null;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.bfl.squarekeyboard;
+
+/**
+ * Dictionary words within one or two edits of the typed word, ranked by
+ * frequency and by how near on the keyboard the mistyped letters are.
+ *
+ * The dictionary trie is walked depth first with the bit-parallel
+ * Wu-Manber recurrence, one mask per allowed error count, so a node costs
+ * a few shifts and a whole subtree is dropped as soon as no prefix of the
+ * typed word is within reach. Only words that pass get the KeyNeighbors
+ * weighted edit distance computed. The neighbor model is rebuilt when
+ * the keyboard's resolved keys change. A search stops after its time
+ * budget, keeping what it found so far.
+ */
+public final class SpatialCorrector {
+    private static final int MAX_WORD = TrieDictionary.MAX_WORD;
+    // score lost per unit of KeyNeighbors cost; a clean substitution
+    // costs 3 units, inserting or deleting a letter too
+    static final int UNIT_PENALTY = 30;
+    private static final int INDEL = KeyNeighbors.OTHER;
+    // keeps scores positive, as Result wants them
+    private static final int SCORE_BASE = 256;
+    private static final int MAX_ERRORS = 2;
+
+    private final TrieDictionary mDict;
+    private final SquareKeyboard mKeyboard;
+    private KeyNeighbors mNeighbors;
+    private int mNeighborsVersion;
+    private long mBudgetNanos = 1000000;
+    private LatencyHistogram mStats;
+    private int mTimeouts;
+
+    // the typed word, lower case, and for each of its letters the mask
+    // of positions it is at, bit r for pattern[r-1]
+    private final char[] mPattern = new char[MAX_WORD];
+    private int mLen, mErrors;
+    private long mAll;
+    private final char[] mMaskChar = new char[MAX_WORD];
+    private final long[] mMask = new long[MAX_WORD];
+    private int mMasks;
+    // Wu-Manber state after each depth, [depth*(MAX_ERRORS+1) + errors]:
+    // bit r set if the first r typed letters are within that many edits
+    // of the path so far
+    private final long[] mR = new long[(MAX_WORD+1)*(MAX_ERRORS+1)];
+    // rows of the weighted distance
+    private final int[] mRow = new int[MAX_WORD+1];
+    private final int[] mPrevRow = new int[MAX_WORD+1];
+
+    private long mDeadline;
+    private int mVisited;
+    private boolean mTimedOut;
+
+    public SpatialCorrector(TrieDictionary dict, SquareKeyboard keyboard) {
+        mDict = dict;
+        mKeyboard = keyboard;
+    }
+
+    /** Longest a correct() call may take, default 1ms. */
+    public void setBudget(long nanos) {
+        mBudgetNanos = nanos;
+    }
+
+    /** Every correct() call is timed into stats, if not null. */
+    public void setStats(LatencyHistogram stats) {
+        mStats = stats;
+    }
+
+    /** Number of correct() calls cut short by the budget. */
+    public int getTimeouts() {
+        return mTimeouts;
+    }
+
+    private void updateNeighbors() {
+        int version = mKeyboard.getResolvedVersion();
+        if(mNeighbors == null || version != mNeighborsVersion) {
+            mNeighbors = KeyNeighbors.build(mKeyboard);
+            mNeighborsVersion = version;
+        }
+    }
+
+    /**
+     * Puts the best corrections of typed[0..len), which is lower case,
+     * into r as lower case words.
+     */
+    public void correct(char[] typed, int len, TrieDictionary.Result r) {
+        r.clear();
+        if(len < 2 || len > MAX_WORD)
+            return;
+        long start = System.nanoTime();
+        updateNeighbors();
+        System.arraycopy(typed, 0, mPattern, 0, len);
+        mLen = len;
+        mErrors = len <= 4 ? 1 : MAX_ERRORS;
+        mAll = (1L << (len+1)) - 1;
+        mMasks = 0;
+        for(int i = 0; i < len; i++) {
+            char c = typed[i];
+            int m = 0;
+            while(m < mMasks && mMaskChar[m] != c)
+                m++;
+            if(m == mMasks) {
+                mMaskChar[m] = c;
+                mMask[m] = 0;
+                mMasks++;
+            }
+            mMask[m] |= 1L << (i+1);
+        }
+        // before any letter, r typed letters take r deletions
+        for(int d = 0; d <= mErrors; d++)
+            mR[d] = (1L << (d+1)) - 1;
+        mDeadline = start + mBudgetNanos;
+        mVisited = 0;
+        mTimedOut = false;
+        search(mDict.root(), 0, r);
+        if(mTimedOut)
+            mTimeouts++;
+        if(mStats != null)
+            mStats.recordSince(start);
+    }
+
+    private long maskOf(char c) {
+        for(int m = 0; m < mMasks; m++) {
+            if(mMaskChar[m] == c)
+                return mMask[m];
+        }
+        return 0;
+    }
+
+    private void search(int node, int depth, TrieDictionary.Result r) {
+        int k = mErrors;
+        int base = depth*(MAX_ERRORS+1), next = base + MAX_ERRORS+1;
+        long goal = 1L << mLen;
+        int n = mDict.childCount(node);
+        for(int i = 0; i < n; i++) {
+            if((++mVisited & 255) == 0 && System.nanoTime() > mDeadline)
+                mTimedOut = true;
+            if(mTimedOut)
+                return;
+            int child = mDict.childNode(node, i);
+            // a word's score is at most SCORE_BASE + its frequency
+            if(SCORE_BASE + mDict.getBest(child) <= r.threshold())
+                continue;
+            char c = mDict.childChar(node, i);
+            long b = maskOf(c);
+            // match, then substitution, insertion and deletion
+            long cur = (mR[base] << 1) & b;
+            mR[next] = cur;
+            for(int d = 1; d <= k; d++) {
+                long prev = mR[base+d-1];
+                cur = (((mR[base+d] << 1) & b) | (prev << 1) | prev | (cur << 1)) & mAll;
+                mR[next+d] = cur;
+            }
+            if(cur == 0)
+                continue;
+            // fewest edits any word below can have, each costs a unit
+            int least = 0;
+            while(mR[next+least] == 0)
+                least++;
+            if(SCORE_BASE + mDict.getBest(child) - UNIT_PENALTY*least <= r.threshold())
+                continue;
+            r.mWord[depth] = c;
+            int f = mDict.getFrequency(child);
+            if(f > 0 && (cur & goal) != 0) {
+                int score = SCORE_BASE + f - UNIT_PENALTY*weightedDistance(r.mWord, depth+1);
+                if(score > r.threshold())
+                    r.insert(depth+1, score);
+            }
+            if(depth+1 < MAX_WORD)
+                search(child, depth+1, r);
+        }
+    }
+
+    // edit distance of the pattern and word[0..n) in KeyNeighbors units
+    private int weightedDistance(char[] word, int n) {
+        int[] prev = mPrevRow, row = mRow;
+        for(int j = 0; j <= mLen; j++)
+            prev[j] = j*INDEL;
+        for(int i = 1; i <= n; i++) {
+            row[0] = i*INDEL;
+            char c = word[i-1];
+            for(int j = 1; j <= mLen; j++) {
+                int v = prev[j-1] + mNeighbors.cost(mPattern[j-1], c);
+                v = Math.min(v, prev[j] + INDEL);
+                v = Math.min(v, row[j-1] + INDEL);
+                row[j] = v;
+            }
+            int[] t = prev; prev = row; row = t;
+        }
+        return prev[mLen];
+    }
+}
@@ -0,0 +1,1471 @@
+package com.bfl.squarekeyboard;
+import java.io.StreamTokenizer;
+import java.io.Reader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringReader;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.Arrays;
+import static com.bfl.squarekeyboard.KeyCodes.*;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+public class SquareKeyboard {
+    private final String TAG = "SquareKeyboard";
+    static final boolean DEBUG = false;
+
+    protected int mRows, mCols;
+
+    Display mView = null;
+    ActionListener mListener;
+    // measures chord labels in compile(), null if nobody previews them
+    ChordMap.TextMeasure mPreviewMeasure;
+
+
+    protected Map<String,Key[][]> mLayouts = new HashMap<String,Key[][]>();
+    protected Map<String,State> mStates = new HashMap<String,State>();
+    // the set mLayouts and mStates came from, base for incremental reparse
+    volatile LayoutSet mLayoutSet;
+
+    State mState;
+    String mStateName;
+    List<Layout> mDeadLayout;
+    int mActiveDeadKey = -1;
+
+    // resolved tables for the current state and dead layout,
+    // indexed [swipe][row][col]. Points to the tables of mState unless
+    // a dead layout or dead meta key is active, see updateResolved()
+    Key[][][] mKeys;
+    String[][][] mLabels;
+    int[][][] mKeyStates;
+    // bumped whenever the tables above change, see getResolvedVersion()
+    int mResolvedVersion;
+    // scratch tables for dead layout overlay, reused between presses
+    private Key[][][] mDeadKeys;
+    private String[][][] mDeadLabels;
+    private int[][][] mDeadKeyStates;
+
+    static final int SHIFT_CAPS = 1;
+    static final int SHIFT_CTRL = 2;
+
+    // swipe slots. UD and LR are the layers of both directions along an
+    // axis, used when a state has no layer for the exact direction.
+    // SWIPE_DISPLAY only holds the alternative label.
+    static final int SWIPE_DISPLAY = 3;
+    static final int SWIPE_UD  = 1;
+    static final int SWIPE_LR  = 2;
+    static final int SWIPE_UP = 4;
+    static final int SWIPE_DOWN = 5;
+    static final int SWIPE_LEFT = 6;
+    static final int SWIPE_RIGHT = 7;
+    static final int SWIPE_UP_LEFT = 8;
+    static final int SWIPE_UP_RIGHT = 9;
+    static final int SWIPE_DOWN_LEFT = 10;
+    static final int SWIPE_DOWN_RIGHT = 11;
+    static final int N_ANGLES  = 11;
+
+    // state command for each swipe slot
+    static final String[] SWIPE_NAMES = {
+        null, "swipe_ud", "swipe_lr", "alt_label",
+        "swipe_up", "swipe_down", "swipe_left", "swipe_right",
+        "swipe_up_left", "swipe_up_right", "swipe_down_left", "swipe_down_right",
+    };
+    // slots to try in order when a state has no key for a swipe slot,
+    // before the base layout. A diagonal goes to the straight directions
+    // next to it, both 45 degrees off, exact ones before the axis layers.
+    static final int[][] SWIPE_FALLBACK = {
+        {}, {}, {}, {},
+        { SWIPE_UD }, { SWIPE_UD }, { SWIPE_LR }, { SWIPE_LR },
+        { SWIPE_UP, SWIPE_LEFT, SWIPE_UD, SWIPE_LR },
+        { SWIPE_UP, SWIPE_RIGHT, SWIPE_UD, SWIPE_LR },
+        { SWIPE_DOWN, SWIPE_LEFT, SWIPE_UD, SWIPE_LR },
+        { SWIPE_DOWN, SWIPE_RIGHT, SWIPE_UD, SWIPE_LR },
+    };
+
+    static final int KEYSTATE_NORMAL = 0;
+    // metakey which is dead
+    static final int KEYSTATE_DEADMETA = 1;
+    // modified by dead layout
+    static final int KEYSTATE_DEADKEY = 2;
+    // modified by swipe
+    static final int KEYSTATE_SWIPED = 3;
+
+    static final int KEYCODE_CHANGE_MODE = -1072;
+
+    protected class Layout {
+        String name;
+        Key[][] map;
+        int shiftstate;
+        // map with shiftstate applied, shifted keys are created once here
+        Key[][] keys;
+        Layout(String name, Key[][] map, int shiftstate) {
+            this.name = name;
+            this.map = map;
+            this.shiftstate = shiftstate;
+            if(shiftstate == 0) {
+                keys = map;
+            } else {
+                keys = new Key[map.length][];
+                for(int i = 0; i < map.length; i++) {
+                    keys[i] = new Key[map[i].length];
+                    for(int j = 0; j < map[i].length; j++) {
+                        if(map[i][j] != null)
+                            keys[i][j] = map[i][j].getShifted(shiftstate);
+                    }
+                }
+            }
+        }
+        public Key getKey(int i, int j) {
+            return keys[i][j];
+        }
+    }
+
+    // Everything parsed from one layout file. Built off the UI thread,
+    // then made current as a whole by install().
+    protected class LayoutSet {
+        int rows = 1, cols = 1;
+        Map<String,Key[][]> layouts = new HashMap<String,Key[][]>();
+        Map<String,State> states = new HashMap<String,State>();
+        // key widths in columns, indexed [row][col]
+        Map<String,float[][]> geometries = new HashMap<String,float[][]>();
+        // parsed blocks by source text, to be reused by the next reparse
+        Map<String,Block> blocks = new HashMap<String,Block>();
+        // special and meta keys by code name, shared by all layouts
+        Map<String,Key> specialKeys = new HashMap<String,Key>();
+        // text of the key directives so far, blocks parsed with other
+        // key definitions can't be reused
+        String keyDefs = "";
+        // auto-repeat timing in ms: first repeat after repeatDelay, then
+        // speeding up from repeatInterval to repeatMinInterval
+        int repeatDelay = 400, repeatInterval = 100, repeatMinInterval = 25;
+        // state names of the input directives by InputTypes kind, null if
+        // unmapped, and the states they name, set by compile()
+        String[] inputStateNames = new String[InputTypes.KINDS];
+        State[] inputStates = new State[InputTypes.KINDS];
+        // chord directives so far, and the table compile() makes of them
+        ChordMap.Builder chordBuilder = new ChordMap.Builder();
+        ChordMap chords = ChordMap.EMPTY;
+
+        // statistics of the load that produced this set
+        long loadNanos;
+        boolean fromSnapshot;
+        int blocksParsed, blocksReused;
+
+        Key[][] createLayout(String name) {
+            Key[][] l = new Key[rows][cols];
+            layouts.put(name,l);
+            return l;
+        }
+
+        State createState(String name) {
+            State s = new State(rows, cols);
+            states.put(name,s);
+            return s;
+        }
+
+        Layout getLayout(String name, int shiftstate) {
+            return new Layout(name,layouts.get(name),shiftstate);
+        }
+
+        float[][] createGeometry(String name) {
+            float[][] g = new float[rows][cols];
+            for(float[] row: g) {
+                Arrays.fill(row, 1f);
+            }
+            geometries.put(name,g);
+            return g;
+        }
+
+        LayoutSet() {
+            defineKey("BKSP", "\u21a4", KEYCODE_DEL).repeat = true;
+            defineKey("RET", "\u21B5", KEYCODE_ENTER);
+            defineKey("LEFT", "\u2190", KEYCODE_DPAD_LEFT).repeat = true;
+            defineKey("RIGHT", "\u2192", KEYCODE_DPAD_RIGHT).repeat = true;
+            defineKey("UP", "\u2191", KEYCODE_DPAD_UP).repeat = true;
+            defineKey("DOWN", "\u2193", KEYCODE_DPAD_DOWN).repeat = true;
+            defineKey("TAB", "\u21B9", KEYCODE_TAB);
+            defineKey("ESC", "Esc", KEYCODE_ESCAPE);
+            defineKey("HOME", "Home", KEYCODE_MOVE_HOME);
+            defineKey("END", "End", KEYCODE_MOVE_END);
+            defineKey("PGUP", "\u21de", KEYCODE_PAGE_UP);
+            defineKey("PGDN", "\u21df", KEYCODE_PAGE_DOWN);
+            defineKey("DEL", "Del", KEYCODE_FORWARD_DEL);
+            defineKey("INSERT", "Ins", KEYCODE_INSERT);
+            for(int n = 1; n <= 12; n++) {
+                defineKey("F" + n, "F" + n, KEYCODE_F1 + n-1);
+            }
+            defineKey("PLAY", "\u23ef", KEYCODE_MEDIA_PLAY_PAUSE);
+            defineKey("STOP", "\u23f9", KEYCODE_MEDIA_STOP);
+            defineKey("NEXT", "\u23ed", KEYCODE_MEDIA_NEXT);
+            defineKey("PREV", "\u23ee", KEYCODE_MEDIA_PREVIOUS);
+            defineKey("VOLUP", "Vol+", KEYCODE_VOLUME_UP);
+            defineKey("VOLDN", "Vol-", KEYCODE_VOLUME_DOWN);
+            defineKey("MUTE", "Mute", KEYCODE_VOLUME_MUTE);
+        }
+
+        SpecialKey defineKey(String name, String label, int keyCode) {
+            SpecialKey key = new SpecialKey(name, label, keyCode);
+            specialKeys.put(name, key);
+            return key;
+        }
+
+        MacroKey defineMacro(String name, String label, Macro macro) {
+            MacroKey key = new MacroKey(name, label, macro);
+            specialKeys.put(name, key);
+            return key;
+        }
+
+        Key getSpecialKey(String code) {
+            Key key = specialKeys.get(code);
+            if(key != null)
+                return key;
+            int id = metaKeyId(code);
+            if(id >= 0) {
+                key = new MetaKeyPlaceholder(id);
+            } else if(code.equals("CHANGE")) {
+                key = new StateKey("CHORD","*CHORD",false);
+            } else {
+                throw new RuntimeException("INvalid code: " + code);
+            }
+            specialKeys.put(code, key);
+            return key;
+        }
+    }
+
+    // swipe slot set by a state command, -1 if it is not a swipe command
+    static int swipeSlot(String cmd) {
+        for(int swipe = 1; swipe <= N_ANGLES; swipe++) {
+            if(SWIPE_NAMES[swipe].equals(cmd))
+                return swipe;
+        }
+        return -1;
+    }
+
+    // n for the meta key name Sn, -1 for anything else
+    static int metaKeyId(String code) {
+        if(code.length() < 2 || code.charAt(0) != 'S')
+            return -1;
+        int id = 0;
+        for(int i = 1; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if(c < '0' || c > '9')
+                return -1;
+            id = 10*id + (c - '0');
+        }
+        return id;
+    }
+
+    // a top level layout or state definition of a layout file
+    protected static class Block {
+        String name;
+        Key[][] layout;
+        State state;
+        float[][] geometry;
+        int rows, cols;
+        String keyDefs;
+    }
+    protected static Key getKey(List<Layout> layouts, int i, int j) {
+        if(layouts == null) 
+            return null;
+        for(Layout l: layouts) {
+            Key k = l.getKey(i,j);
+            if(k != null) 
+                return k;
+        }
+        return null;
+    }
+
+    protected class State {
+        List<Layout> layout;
+        List<Layout>[] swipeLayout = new List[N_ANGLES+1];
+        MetaKey[] sKey = new MetaKey[3+1]; //FIXME HARDCODE
+        int rows, cols;
+        String geometryName;
+        float[][] geometry;
+        // some diagonal swipe has a layer, set by compile()
+        boolean diagonals;
+
+        // precompiled by compile(), indexed [swipe][row][col]
+        Key[][][] keys;
+        String[][][] labels;
+        int[][][] keyStates;
+        // left edge and width of each key in columns, indexed [row][col].
+        // A key spanning several cells has width 0 in the covered ones.
+        float[][] keyX;
+        float[][] keyW;
+
+        State(int rows, int cols) {
+            this.rows = rows;
+            this.cols = cols;
+        }
+
+        void compile() {
+            keys = new Key[N_ANGLES+1][rows][cols];
+            labels = new String[N_ANGLES+1][rows][cols];
+            keyStates = new int[N_ANGLES+1][rows][cols];
+            resolve(this, null, -1, keys, labels, keyStates);
+            compileGeometry();
+            diagonals = false;
+            for(int swipe = SWIPE_UP_LEFT; swipe <= SWIPE_DOWN_RIGHT; swipe++) {
+                if(swipeLayout[swipe] != null)
+                    diagonals = true;
+            }
+        }
+
+        void compileGeometry() {
+            keyX = new float[rows][cols];
+            keyW = new float[rows][cols];
+            for(int i = 0; i < rows; i++) {
+                float[] w = keyW[i];
+                if(geometry != null) {
+                    System.arraycopy(geometry[i], 0, w, 0, cols);
+                } else {
+                    // no declared geometry: a run of space keys is one
+                    // wide spacebar, as it always was drawn
+                    for(int j = 0; j < cols; j++) {
+                        w[j] = 1f;
+                        if(j > 0 && labels[0][i][j].equals(" ")
+                                && labels[0][i][j-1].equals(" ")) {
+                            int start = j-1;
+                            while(w[start] == 0f)
+                                start--;
+                            w[start] += 1f;
+                            w[j] = 0f;
+                        }
+                    }
+                }
+                float sum = 0f;
+                for(int j = 0; j < cols; j++)
+                    sum += w[j];
+                // rows wider than the keyboard are squeezed to fit
+                float scale = sum > cols ? cols / sum : 1f;
+                float x = 0f;
+                for(int j = 0; j < cols; j++) {
+                    w[j] *= scale;
+                    keyX[i][j] = x;
+                    x += w[j];
+                }
+            }
+        }
+
+        // true if every layout this state refers to is the one in set
+        boolean usesLayoutsOf(LayoutSet set) {
+            if(geometryName != null && set.geometries.get(geometryName) != geometry)
+                return false;
+            if(!sameLayouts(layout, set))
+                return false;
+            for(List<Layout> l: swipeLayout) {
+                if(!sameLayouts(l, set))
+                    return false;
+            }
+            for(MetaKey k: sKey) {
+                if(k instanceof DeadKey && !sameLayouts(((DeadKey)k).deadLayout, set))
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean sameLayouts(List<Layout> list, LayoutSet set) {
+            if(list == null)
+                return true;
+            for(Layout l: list) {
+                if(set.layouts.get(l.name) != l.map)
+                    return false;
+            }
+            return true;
+        }
+
+        String getMetaLabel(int id) {
+            if(id < 0 || id >= sKey.length || sKey[id] == null)
+                return "";
+            return sKey[id].getLabel();
+        }
+    }
+
+    // Fills the tables with the final key, label and KEYSTATE_* for every
+    // swipe mode and cell. This is the only place the layout lists are walked.
+    void resolve(State s, List<Layout> dead, int activeDead,
+            Key[][][] keys, String[][][] labels, int[][][] keyStates) {
+        for(int swipe = 0; swipe <= N_ANGLES; swipe++) {
+            for(int i = 0; i < s.rows; i++) {
+                for(int j = 0; j < s.cols; j++) {
+                    Key k = getKey(dead, i, j);
+                    int state = KEYSTATE_NORMAL;
+                    if(k != null) {
+                        state = KEYSTATE_DEADKEY;
+                    } else if(swipe != 0 && (k = getKey(s.swipeLayout[swipe], i, j)) != null) {
+                        state = KEYSTATE_SWIPED;
+                    } else {
+                        int[] fallback = SWIPE_FALLBACK[swipe];
+                        for(int f = 0; f < fallback.length && k == null; f++)
+                            k = getKey(s.swipeLayout[fallback[f]], i, j);
+                        if(k != null)
+                            state = KEYSTATE_SWIPED;
+                        else if(swipe != SWIPE_DISPLAY)
+                            k = getKey(s.layout, i, j);
+                    }
+                    String label = "";
+                    if(k instanceof MetaKeyPlaceholder) {
+                        int id = ((MetaKeyPlaceholder)k).id;
+                        if(id == activeDead)
+                            state = KEYSTATE_DEADMETA;
+                        label = s.getMetaLabel(id);
+                    } else if(k != null) {
+                        label = k.getLabel();
+                    }
+                    keys[swipe][i][j] = k;
+                    labels[swipe][i][j] = label;
+                    keyStates[swipe][i][j] = state;
+                }
+            }
+        }
+    }
+
+    // to be called whenever mState, mDeadLayout or mActiveDeadKey changes
+    void updateResolved() {
+        mResolvedVersion++;
+        if(mState == null)
+            return;
+        if(mDeadLayout == null && mActiveDeadKey == -1) {
+            mKeys = mState.keys;
+            mLabels = mState.labels;
+            mKeyStates = mState.keyStates;
+            return;
+        }
+        if(mDeadKeys == null || mDeadKeys[0].length != mRows
+                || mDeadKeys[0][0].length != mCols) {
+            mDeadKeys = new Key[N_ANGLES+1][mRows][mCols];
+            mDeadLabels = new String[N_ANGLES+1][mRows][mCols];
+            mDeadKeyStates = new int[N_ANGLES+1][mRows][mCols];
+        }
+        resolve(mState, mDeadLayout, mActiveDeadKey, mDeadKeys, mDeadLabels, mDeadKeyStates);
+        mKeys = mDeadKeys;
+        mLabels = mDeadLabels;
+        mKeyStates = mDeadKeyStates;
+    }
+
+    void deadChanged() {
+        updateResolved();
+        if(mView != null)
+            mView.forceDraw();
+    }
+
+    protected void setState(String newState) {
+        if(newState.equals("*CHORD")) {
+            mListener.changeMode();
+            return;
+        }
+        setState(mStates.get(newState), newState);
+    }
+
+    private void setState(State state, String name) {
+        mState = state;
+        mStateName = name;
+        mActiveDeadKey = -1;
+        mDeadLayout = null;
+        deadChanged();
+    }
+
+    static protected abstract class Key {
+        String label;
+        abstract void onPress();
+
+        // pressed again and again while held down
+        boolean repeats() {
+            return false;
+        }
+
+        String getLabel() {
+            return label;
+        }
+
+        Key getShifted(int shiftstate) {
+            if(shiftstate == 0) 
+                return this;
+            else
+                return null;
+        }
+    }
+
+    protected class TypeKey extends Key {
+        String text;
+        TypeKey(String text) {
+            this(text,text);
+        }
+
+        TypeKey(String label, String text) {
+            this.label = label;
+            this.text = text;
+        }
+
+        boolean isCtrlable() {
+            if(label.length() != 1)
+                return false;
+            char c = label.charAt(0);
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+
+        Key getShifted(int shiftstate) {
+            if(shiftstate == SHIFT_CAPS) {
+                return new TypeKey(text.toUpperCase());
+            } else if(shiftstate == SHIFT_CTRL) {
+                if(!isCtrlable()) 
+                    return null;
+                char val = text.toUpperCase().charAt(0);
+                return new TypeKey("^" + val,
+                        String.valueOf((char)(val - 'A' + 1)));
+            }
+            return this;
+        }
+
+        void onPress() {
+            mListener.onText(text);
+            if(mDeadLayout != null) {
+                mActiveDeadKey = -1;
+                mDeadLayout = null;
+                deadChanged();
+            }
+        }
+    }
+
+
+    protected class SpecialKey extends Key {
+        String name;
+        int keyCode;
+        boolean repeat;
+
+        SpecialKey(String name, String label, int keyCode) {
+            this.name = name;
+            this.label = label;
+            this.keyCode = keyCode;
+        }
+
+        void onPress() {
+            mListener.onSpecialKey(keyCode);
+        }
+
+        boolean repeats() {
+            return repeat;
+        }
+
+    }
+
+    // runs a Macro, declared with the macro directive and placed in
+    // layouts by name like a special key
+    protected class MacroKey extends Key {
+        String name;
+        Macro macro;
+
+        MacroKey(String name, String label, Macro macro) {
+            this.name = name;
+            this.label = label;
+            this.macro = macro;
+        }
+
+        void onPress() {
+            mListener.onMacro(macro);
+            if(mDeadLayout != null) {
+                mActiveDeadKey = -1;
+                mDeadLayout = null;
+                deadChanged();
+            }
+        }
+    }
+
+    abstract protected static class MetaKey extends Key{
+        abstract void onSecondPress();
+    }
+
+    protected class DeadKey extends MetaKey {
+        List<Layout> deadLayout;
+        DeadKey(String label, List<Layout> deadLayout) {
+            this.label = label;
+            this.deadLayout = deadLayout;
+        } 
+        void onPress() {
+            mDeadLayout = deadLayout;
+            deadChanged();
+        }
+        void onSecondPress() {
+            mDeadLayout = null;
+            deadChanged();
+        }
+
+    }
+
+    protected class StateKey extends MetaKey {
+        String newState;
+        boolean dead;
+        StateKey(String label, String newState, boolean dead) {
+            this.label = label;
+            this.newState = newState;
+            this.dead = dead;
+        } 
+        void onPress() {
+            if(dead) {
+                mDeadLayout = mStates.get(newState).layout;
+                deadChanged();
+            } else {
+                setState(newState);
+            }
+        }
+        void onSecondPress() {
+            setState(newState);
+        }
+    }
+
+    protected class MetaKeyPlaceholder extends Key {
+        int id;
+        MetaKeyPlaceholder(int id) {
+            this.id = id;
+        } 
+        String getLabel() {
+            return mState.sKey[id].getLabel();
+
+        }
+        void onPress() {
+            if(mActiveDeadKey != id) {
+                mActiveDeadKey = id;
+                mState.sKey[id].onPress();
+            } else {
+                mActiveDeadKey = -1;
+                mState.sKey[id].onSecondPress();
+            }
+            // the active meta key changes KEYSTATE_DEADMETA even when
+            // the dead layout does not
+            updateResolved();
+
+        }
+
+    }
+
+    public SquareKeyboard(ActionListener listener) {
+        mListener = listener;
+        setSize(1,1);
+    }
+
+
+    public void loadFile(String filename) {
+        loadFile(filename, null);
+    }
+
+    public void loadFile(String filename, File snapshot) {
+        install(loadSet(filename, snapshot, null));
+    }
+
+    /**
+     * Loads a layout file, going through the compiled snapshot if one is
+     * given. The snapshot is used directly when size and mtime of the
+     * source match, or when its contents hash the same. Otherwise the
+     * text is parsed, reusing unchanged blocks of previous if given,
+     * and the snapshot rewritten.
+     *
+     * Only builds the set, call install() on the UI thread to use it.
+     */
+    LayoutSet loadSet(String filename, File snapshot, LayoutSet previous) {
+        long start = System.nanoTime();
+        File src = new File(filename);
+        long size = src.length(), mtime = src.lastModified();
+        CompiledLayout.Header h = null;
+        if(snapshot != null) {
+            h = CompiledLayout.readHeader(snapshot);
+        }
+        LayoutSet set = null;
+        try {
+            if(h != null && h.size == size && h.mtime == mtime) {
+                set = loadSnapshot(snapshot);
+            }
+            if(set == null) {
+                byte[] data = readFile(src);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                int sum = (int) crc.getValue();
+                if(h != null && h.crc == sum && h.size == data.length
+                        && (set = loadSnapshot(snapshot)) != null) {
+                    CompiledLayout.updateHeader(snapshot, size, mtime, sum);
+                } else {
+                    set = parse(new String(data, "UTF-8"), previous);
+                    if(snapshot != null) {
+                        new CompiledLayout(this, set).write(snapshot, size, mtime, sum);
+                    }
+                }
+            }
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+        compile(set);
+        set.loadNanos = System.nanoTime() - start;
+        CoreLog.i(TAG, "loaded " + filename + (set.fromSnapshot ? " from snapshot" : " from text")
+                + " in " + set.loadNanos/1000 + " us, "
+                + set.blocksParsed + " blocks parsed, " + set.blocksReused + " reused");
+        return set;
+    }
+
+    /**
+     * Loads a layout from a reader, without snapshot. Used for the
+     * bundled default layout.
+     */
+    public void load(Reader r) {
+        long start = System.nanoTime();
+        StringBuilder text = new StringBuilder();
+        char[] buf = new char[4096];
+        try {
+            int n;
+            while((n = r.read(buf)) > 0) {
+                text.append(buf, 0, n);
+            }
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+        LayoutSet set = parse(text.toString(), null);
+        compile(set);
+        set.loadNanos = System.nanoTime() - start;
+        install(set);
+    }
+
+    /**
+     * Makes set current, keeping the current state if it still exists.
+     * Must run on the UI thread.
+     */
+    void install(LayoutSet set) {
+        mLayoutSet = set;
+        setSize(set.rows, set.cols);
+        mLayouts = set.layouts;
+        mStates = set.states;
+        if(mStateName != null && mStates.containsKey(mStateName)) {
+            setState(mStateName);
+        } else {
+            setState("main");
+        }
+    }
+
+    private LayoutSet loadSnapshot(File snapshot) {
+        LayoutSet set = new LayoutSet();
+        try {
+            new CompiledLayout(this, set).read(snapshot);
+        } catch(Exception e) {
+            CoreLog.w(TAG, "discarding snapshot " + snapshot, e);
+            return null;
+        }
+        set.fromSnapshot = true;
+        return set;
+    }
+
+    /**
+     * Splits text into its top level definitions and parses them one at
+     * a time. A definition with the same text and size as in previous
+     * is taken over from it, a state only if all its layouts were too.
+     *
+     * The split goes by the tokens of each line, as the parser sees
+     * them: a line ending in { opens a block, which a } alone on its
+     * line closes; any other line at the top level is a definition of
+     * its own. Braces in quotes or comments, or among the keys of a
+     * layout row, do not count.
+     */
+    LayoutSet parse(String text, LayoutSet previous) {
+        LayoutSet set = new LayoutSet();
+        StreamTokenizer t = new StreamTokenizer(new StringReader(text));
+        layoutSyntax(t);
+        // offset of the current line, and of the block being collected
+        int pos = 0, line = 0;
+        int blockStart = -1, blockLine = 0;
+        // tokens on the current line, the first and last of them
+        int n = 0, first = 0, last = 0;
+        while(true) {
+            int tt;
+            try {
+                tt = t.nextToken();
+            } catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+            if(tt != StreamTokenizer.TT_EOL && tt != StreamTokenizer.TT_EOF) {
+                if(n++ == 0)
+                    first = tt;
+                last = tt;
+                continue;
+            }
+            int eol = text.indexOf('\n', pos);
+            if(eol < 0)
+                eol = text.length();
+            if(n > 0) {
+                if(blockStart < 0) {
+                    if(last == '{') {
+                        blockStart = pos;
+                        blockLine = line;
+                    } else {
+                        parseBlock(set, text.substring(pos, eol), line, previous);
+                    }
+                } else if(n == 1 && first == '}') {
+                    parseBlock(set, text.substring(blockStart, eol), blockLine, previous);
+                    blockStart = -1;
+                }
+            }
+            if(tt == StreamTokenizer.TT_EOF)
+                break;
+            pos = eol+1;
+            line++;
+            n = 0;
+        }
+        if(blockStart >= 0) {
+            // unclosed, the parser reports where
+            parseBlock(set, text.substring(blockStart), blockLine, previous);
+        }
+        return set;
+    }
+
+    // the syntax layout files start out with, see MapFileReader
+    static void layoutSyntax(StreamTokenizer t) {
+        //t.resetSyntax();
+        t.eolIsSignificant(true);
+        t.whitespaceChars(' ', ' ');
+        t.whitespaceChars('\t', '\t');
+        t.wordChars('a','z');
+        t.wordChars('A','Z');
+        t.wordChars('_','_');
+        t.ordinaryChar('.');
+        t.ordinaryChar('-');
+        t.ordinaryChar('/'); //meh
+        t.ordinaryChar('\\'); //meh
+        t.quoteChar('"');
+        t.commentChar('#');
+    }
+
+    private void parseBlock(LayoutSet set, String src, int line, LayoutSet previous) {
+        Block old = previous != null ? previous.blocks.get(src) : null;
+        if(old != null && old.rows == set.rows && old.cols == set.cols
+                && old.keyDefs.equals(set.keyDefs)) {
+            if(old.layout != null) {
+                set.layouts.put(old.name, old.layout);
+                set.blocks.put(src, old);
+                set.blocksReused++;
+                return;
+            } else if(old.geometry != null) {
+                set.geometries.put(old.name, old.geometry);
+                set.blocks.put(src, old);
+                set.blocksReused++;
+                return;
+            } else if(old.state != null && old.state.usesLayoutsOf(set)) {
+                set.states.put(old.name, old.state);
+                set.blocks.put(src, old);
+                set.blocksReused++;
+                return;
+            }
+        }
+        MapFileReader fr = new MapFileReader(new StringReader(src), set, line);
+        fr.parseFile();
+        set.blocksParsed++;
+        if(fr.keyDef) {
+            set.keyDefs += src + "\n";
+        }
+        if(fr.blockName != null) {
+            Block b = new Block();
+            b.name = fr.blockName;
+            if(fr.blockType == "layout") {
+                b.layout = set.layouts.get(b.name);
+            } else if(fr.blockType == "geometry") {
+                b.geometry = set.geometries.get(b.name);
+            } else {
+                b.state = set.states.get(b.name);
+            }
+            b.rows = set.rows;
+            b.cols = set.cols;
+            b.keyDefs = set.keyDefs;
+            set.blocks.put(src, b);
+        }
+    }
+
+    void compile(LayoutSet set) {
+        for(State s: set.states.values()) {
+            if(s.keys == null)
+                s.compile();
+        }
+        for(int k = 0; k < InputTypes.KINDS; k++) {
+            String name = set.inputStateNames[k];
+            if(name == null)
+                continue;
+            set.inputStates[k] = set.states.get(name);
+            if(set.inputStates[k] == null)
+                throw new RuntimeException("input " + InputTypes.getName(k)
+                        + ": no state " + name);
+        }
+        set.chords = set.chordBuilder.build(mPreviewMeasure);
+    }
+
+    /** Label of what chord types on the chord keyboard, null if nothing. */
+    public String getChordLabel(int chord) {
+        return mLayoutSet.chords.getLabel(chord);
+    }
+
+    /** Preview width of getChordLabel(chord), -1 if not known. */
+    public float getChordLabelWidth(int chord) {
+        return mLayoutSet.chords.getWidth(chord);
+    }
+
+    /**
+     * Measures chord labels for the preview whenever a layout is compiled,
+     * which may be on a loader thread. Set before loading.
+     */
+    public void setPreviewMeasure(ChordMap.TextMeasure measure) {
+        mPreviewMeasure = measure;
+    }
+
+    /**
+     * Presses the key chord is mapped to, which commits through the
+     * ActionListener. Returns false if it is mapped to nothing.
+     */
+    public boolean pressChord(int chord) {
+        Key k = mLayoutSet.chords.getKey(chord);
+        if(k == null)
+            return false;
+        k.onPress();
+        return true;
+    }
+
+    /**
+     * Switches to the state the layout file maps inputType to, see
+     * InputTypes, or to main if it maps none. Must run on the UI thread.
+     */
+    public void setInputType(int inputType) {
+        LayoutSet set = mLayoutSet;
+        int kind = InputTypes.variationKind(inputType);
+        if(kind < 0 || set.inputStates[kind] == null)
+            kind = InputTypes.classKind(inputType);
+        if(kind >= 0 && set.inputStates[kind] != null) {
+            setState(set.inputStates[kind], set.inputStateNames[kind]);
+        } else {
+            setState("main");
+        }
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            byte[] data = new byte[(int) f.length()];
+            int off = 0;
+            while(off < data.length) {
+                int n = in.read(data, off, data.length-off);
+                if(n < 0)
+                    break;
+                off += n;
+            }
+            return off == data.length ? data : Arrays.copyOf(data, off);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void setView(Display view) {
+        mView = view;
+    }
+
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public int getCols() {
+        return mCols;
+    }
+
+    public Key getKey(int i, int j, int swipe) {
+        return mKeys[swipe][i][j];
+    }
+
+    public int getKeyState(int i, int j, int swipe) {
+        return mKeyStates[swipe][i][j];
+    }
+
+    /**
+     * Changes whenever the keys getKey() returns may have changed, so
+     * models derived from them know when to rebuild.
+     */
+    public int getResolvedVersion() {
+        return mResolvedVersion;
+    }
+
+    /** True if the current state has layers for diagonal swipes. */
+    public boolean hasDiagonalSwipes() {
+        return mState != null && mState.diagonals;
+    }
+
+    public String getKeyLabel(int r, int c, int swipe) {
+        return mLabels[swipe][r][c];
+    }
+
+    // left edges of the keys of the current state in columns, [row][col]
+    public float[][] getKeyX() {
+        return mState.keyX;
+    }
+
+    // widths of the keys of the current state in columns, 0 for cells
+    // covered by a wider key
+    public float[][] getKeyWidth() {
+        return mState.keyW;
+    }
+
+    /** True if the key auto-repeats while held, see KeyTracker. */
+    public boolean isRepeating(int r, int c, int ang) {
+        Key k = getKey(r,c,ang);
+        return k != null && k.repeats();
+    }
+
+    public int getRepeatDelay() {
+        return mLayoutSet.repeatDelay;
+    }
+
+    public int getRepeatInterval() {
+        return mLayoutSet.repeatInterval;
+    }
+
+    public int getRepeatMinInterval() {
+        return mLayoutSet.repeatMinInterval;
+    }
+
+    public void onKeyPress(int r, int c, int ang) {
+        Key k = getKey(r,c,ang);
+        if( k != null) 
+            k.onPress();
+    }
+
+    public interface ActionListener {
+        void onKey(char ch);
+        void onText(CharSequence text);
+        void onSpecialKey(int keyCode);
+        // all of it as one edit
+        void onMacro(Macro macro);
+        void changeMode();
+    }
+
+    // whatever shows the keyboard, told to redraw when the keys change
+    public interface Display {
+        void forceDraw();
+    }
+
+    void setSize(int rows, int cols) {
+        mRows = rows;
+        mCols = cols;
+    }
+
+    private class MapFileReader extends StreamTokenizer {
+        private static final String TAG = "MapFileReader";
+        final LayoutSet set;
+        final int lineOffset;
+        // name and kind of the last layout, geometry or state defined
+        String blockName, blockType;
+        // whether a key directive was parsed
+        boolean keyDef;
+
+        MapFileReader(Reader r, LayoutSet set, int lineOffset) {
+            super(r);
+            this.set = set;
+            this.lineOffset = lineOffset;
+            layoutSyntax(this);
+        }
+
+        void fail() {
+            throw new RuntimeException("Parse error on line " + (lineno()+lineOffset));
+        }
+
+        void nextTok() {
+            try {
+                nextToken();
+            } catch(IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void parseFile() {
+            while(true) {
+                nextTok();
+                if( ttype == TT_EOL) {
+                    continue;
+                } else if(ttype == TT_EOF) {
+                    break;
+                } else if(parseLine()) {
+                    continue;
+                } else {
+                    fail();
+                }
+
+            }
+        }
+
+        // reuses
+        boolean parseLine() {
+            if(ttype != TT_WORD) {
+                return false;
+            }
+            sval = sval.intern();
+            if(sval == "size") {
+                parseSize();
+            } else if(sval == "layout") {
+                parseLayout();
+            } else if(sval == "state") {
+                parseState();
+            } else if(sval == "key") {
+                parseKeyDef();
+            } else if(sval == "geometry") {
+                parseGeometry();
+            } else if(sval == "repeat") {
+                parseRepeat();
+            } else if(sval == "input") {
+                parseInput();
+            } else if(sval == "macro") {
+                parseMacro();
+            } else if(sval == "chord") {
+                parseChord();
+            } else {
+                fail();
+            }
+            return true;
+        }
+
+        // repeat DELAY INTERVAL FASTEST, in milliseconds
+        void parseRepeat() {
+            parseNumbers();
+            int[] ms = new int[3];
+            for(int n = 0; n < ms.length; n++) {
+                nextTok();
+                if( ttype != TT_NUMBER || nval < 1)
+                    fail();
+                ms[n] = (int) nval;
+            }
+            set.repeatDelay = ms[0];
+            set.repeatInterval = ms[1];
+            set.repeatMinInterval = Math.min(ms[1], ms[2]);
+        }
+
+
+        // input TYPE state NAME, the state to start in for editors of
+        // that type; resolved by compile() once all states are known
+        void parseInput() {
+            nextTok();
+            if( ttype != TT_WORD)
+                fail();
+            int kind = InputTypes.fromName(sval);
+            if( kind < 0)
+                fail();
+            nextTok();
+            if( ttype != TT_WORD || !sval.equals("state"))
+                fail();
+            nextTok();
+            if( ttype != TT_WORD)
+                fail();
+            set.inputStateNames[kind] = sval;
+        }
+
+        void parseSize() {
+            parseNumbers();
+            nextTok();
+            if( ttype != TT_NUMBER) 
+                fail();
+            int rows = (int) nval;
+            nextTok();
+            if( ttype != TT_NUMBER) 
+                fail();
+            int cols = (int) nval;
+            set.rows = rows;
+            set.cols = cols;
+        }
+
+
+        // key NAME "label" KEYCODE_NAME [repeat], where the key code may
+        // also be given as a number
+        void parseKeyDef() {
+            nextTok();
+            if( ttype != TT_WORD)
+                fail();
+            String name = sval;
+            nextTok();
+            if( ttype != TT_WORD && ttype != '"')
+                fail();
+            String label = sval;
+            nextTok();
+            int code;
+            if( ttype == TT_NUMBER) {
+                code = (int) nval;
+            } else if( ttype == TT_WORD) {
+                code = KeyCodes.fromName(sval);
+            } else {
+                code = KEYCODE_UNKNOWN;
+            }
+            if( code == KEYCODE_UNKNOWN)
+                fail();
+            SpecialKey key = set.defineKey(name, label, code);
+            nextTok();
+            if( ttype == TT_WORD && sval.equals("repeat")) {
+                key.repeat = true;
+            } else {
+                pushBack();
+            }
+            keyDef = true;
+        }
+
+        // macro NAME "label" STEP..., where a step is "text", the name of
+        // a special key, or < and > to move the cursor one char left or
+        // right. Control chars can be given in the text as octal escapes,
+        // e.g. "\003" for ^C.
+        void parseMacro() {
+            ordinaryChars('0','9');
+            wordChars('0','9');
+            nextTok();
+            if( ttype != TT_WORD || sval.length() < 2)
+                fail();
+            String name = sval;
+            nextTok();
+            if( ttype != TT_WORD && ttype != '"')
+                fail();
+            String label = sval;
+            Macro.Builder b = new Macro.Builder();
+            while(true) {
+                nextTok();
+                if( ttype == TT_EOL || ttype == TT_EOF) {
+                    break;
+                } else if( ttype == '"') {
+                    b.text(sval);
+                } else if( ttype == '<') {
+                    b.move(-1);
+                } else if( ttype == '>') {
+                    b.move(1);
+                } else if( ttype == TT_WORD) {
+                    Key k = set.specialKeys.get(sval);
+                    if(!(k instanceof SpecialKey))
+                        fail();
+                    b.key(((SpecialKey) k).keyCode);
+                } else {
+                    fail();
+                }
+            }
+            if(b.isEmpty())
+                fail();
+            set.defineMacro(name, label, b.build());
+            keyDef = true;
+        }
+
+        // chord KEYS OUTPUT, where KEYS are the Chord.keyName()s of the
+        // keys, e.g. abe, and OUTPUT is what a layout cell could hold
+        // other than a meta key
+        void parseChord() {
+            nextTok();
+            if( ttype != TT_WORD)
+                fail();
+            int mask = Chord.parse(sval);
+            if( mask == 0)
+                fail();
+            ordinaryChars('0','9');
+            wordChars('0','9');
+            nextTok();
+            Key key;
+            if( ttype == TT_WORD && sval.length() >= 2) {
+                key = set.getSpecialKey(sval);
+                if(key instanceof MetaKeyPlaceholder)
+                    fail();
+            } else if( ttype == TT_WORD || ttype == '"') {
+                key = new TypeKey(sval);
+            } else if( ttype == TT_EOL || ttype == TT_EOF) {
+                fail();
+                return;
+            } else {
+                key = new TypeKey(String.valueOf((char)ttype));
+            }
+            set.chordBuilder.put(mask, key);
+        }
+
+        // Widths of the keys in columns, one row per line, fractions
+        // allowed. A key spans the following cells given width 0, cells
+        // not listed have width 1.
+        void parseGeometry() {
+            nextTok();
+            if( ttype != TT_WORD)
+                fail();
+            String name = sval;
+            blockName = name;
+            blockType = "geometry";
+            float[][] g = set.createGeometry(name);
+            nextTok();
+            if( ttype != '{') 
+                fail();
+            nextTok();
+            if( ttype != TT_EOL)
+                fail();
+            parseNumbers(); // '.' is ordinary by default
+            nextTok();
+            for(int r = 0; r < set.rows; r++) {
+                if(ttype == '}') 
+                    break;
+                for(int c = 0; c < set.cols; c++) {
+                    if( ttype == TT_EOL) {
+                        break; 
+                    } else if( ttype != TT_NUMBER || nval < 0) {
+                        fail(); 
+                    }
+                    g[r][c] = (float) nval;
+                    nextTok(); 
+                }
+                if( ttype != TT_EOL) 
+                    fail();
+                nextTok();
+            }
+            if( ttype != '}') 
+                fail();
+        }
+
+        void parseLayout() {
+            nextTok();
+            if( ttype != TT_WORD)
+                fail();
+            String name = sval;
+            blockName = name;
+            blockType = "layout";
+            Key[][] l = set.createLayout(name);
+            nextTok();
+            if( ttype != '{') 
+                fail();
+            nextTok();
+            if( ttype != TT_EOL)
+                fail();
+
+            ordinaryChars('0','9');
+            wordChars('0','9');
+            nextTok(); // we lie ahead
+            for(int r = 0; r < set.rows; r++) {
+                int c = 0;
+                if(ttype == '}') {
+                    // alone on its line it ends the layout, else a key
+                    nextTok();
+                    if(ttype == TT_EOL || ttype == TT_EOF) {
+                        ttype = '}';
+                        break;
+                    }
+                    l[r][c++] = new TypeKey("}");
+                }
+                for(; c < set.cols; c++) {
+                    Key key = null;
+                    if( ttype == TT_EOL) {
+                        break; 
+                    } else if( ttype == TT_EOF) {
+                        fail(); 
+                    } else if(ttype == TT_WORD) {
+                        if(sval.length() >= 2) {
+                            key = set.getSpecialKey(sval);
+                        } else {
+                            key = new TypeKey(sval);
+                        }
+                    } else if(ttype == '"') {
+                        key = new TypeKey(sval);
+                    } else if(ttype == '*') {
+                        key = null;
+                    } else {
+                        String txt = String.valueOf((char)ttype);
+                        key = new TypeKey(txt);
+                    }
+                    l[r][c] = key;
+                    nextTok(); 
+                }
+                if( ttype != TT_EOL) 
+                    fail();
+                nextTok();
+            }
+            if( ttype != '}') 
+                fail();
+        }
+
+        void parseState() {
+            nextTok();
+            if( ttype != TT_WORD)
+                fail();
+            String name = sval;
+            if(DEBUG) CoreLog.d(TAG, "state " + name);
+            blockName = name;
+            blockType = "state";
+            State s = set.createState(name);
+            nextTok();
+            if( ttype != '{') 
+                fail();
+            nextTok();
+            if( ttype != TT_EOL)
+                fail();
+            nextTok();
+            while(true) {
+                if( ttype == TT_EOL) {
+                    nextTok();
+                    continue;
+                } else if( ttype == '}') {
+                    break;
+                } else if( ttype != TT_WORD) {
+                    fail();
+                }
+                String cmd = sval.intern();
+                nextTok();
+                if( cmd == "layout") {
+                    s.layout = parseLayoutList();
+                } else if( cmd == "geometry") {
+                    if( ttype != TT_WORD || !set.geometries.containsKey(sval))
+                        fail();
+                    s.geometryName = sval;
+                    s.geometry = set.geometries.get(sval);
+                    nextTok();
+                } else if(metaKeyId(cmd) >= 0) {
+                    int id = metaKeyId(cmd);
+                    String label = sval;
+                    nextTok();
+                    String type = sval.intern();
+                    nextTok();
+                    MetaKey key = null;
+                    if(type == "dead") {
+                        List<Layout> l = parseLayoutList();
+                        key = new DeadKey(label,l);
+                    } else if(type == "state") {
+                        String state = sval;
+                        nextTok();
+                        key = new StateKey(label,state,false);
+                    } else if(type == "deadlatch") {
+                        String state = sval;
+                        nextTok();
+                        key = new StateKey(label,state,true);
+                    }
+                    s.sKey[id] =key;
+
+                } else if(swipeSlot(cmd) > 0) {
+                    List<Layout> l = parseLayoutList();
+                    s.swipeLayout[swipeSlot(cmd)] = l;
+                } else {
+                    fail();
+                }
+            }
+        }
+
+        List<Layout> parseLayoutList() {
+            List<Layout> l = new ArrayList<Layout>();
+            while(true) {
+                if( ttype != TT_WORD) 
+                    break;
+                int shiftstate = 0;
+                if(sval.equals("shift")) {
+                    shiftstate = SHIFT_CAPS; 
+                } else if(sval.equals("ctrl")) { 
+                    shiftstate = SHIFT_CTRL; 
+                } 
+
+                if(shiftstate != 0) {
+                    nextTok();
+                    if( ttype != ':') 
+                        fail();
+                    nextTok();
+                }
+                if( ttype != TT_WORD) 
+                    fail();
+                if(DEBUG) CoreLog.d(TAG, "layout " + sval);
+                if(!set.layouts.containsKey(sval))
+                    fail();
+                l.add(set.getLayout(sval,shiftstate));
+                nextTok();
+            }
+            return l;
+        }
+
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.bfl.squarekeyboard;
+
+/**
+ * Receiver of the touch stream as the keyboard views see it, one call per
+ * pointer sample. Implemented by the views and by KeyTracker, and fed by
+ * TouchReplay.
+ */
+public interface TouchHandler {
+    void onTouchDown(int id, float x, float y);
+    void onTouchMove(int id, float x, float y);
+    void onTouchUp(int id, float x, float y);
+    // the gesture was taken away, nothing should be committed
+    void onTouchCancel();
+}
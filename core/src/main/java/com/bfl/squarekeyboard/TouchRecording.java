@@ -0,0 +1,161 @@
+package com.bfl.squarekeyboard;
+import java.io.*;
+
+/**
+ * The touch stream a keyboard view saw, one event per TouchHandler call,
+ * kept in flat arrays while recording and saved in a compact binary form:
+ *
+ *   "SQTR" version width rowHeight count first-time
+ *   count times: action id time-delta(varint, ms) x y
+ *
+ * Times are uptime milliseconds as in MotionEvent.getEventTime().
+ */
+public final class TouchRecording {
+    public static final int DOWN = 0;
+    public static final int MOVE = 1;
+    public static final int UP = 2;
+    public static final int CANCEL = 3;
+
+    private static final int MAGIC = 0x53515452; // "SQTR"
+    private static final int VERSION = 1;
+
+    private final int mWidth, mRowHeight;
+    private int mSize;
+    private long[] mTime;
+    private byte[] mAction, mId;
+    private float[] mX, mY;
+
+    /** width and rowHeight of the view, so replay hits the same keys. */
+    public TouchRecording(int width, int rowHeight) {
+        this(width, rowHeight, 1024);
+    }
+
+    private TouchRecording(int width, int rowHeight, int capacity) {
+        mWidth = width;
+        mRowHeight = rowHeight;
+        mTime = new long[capacity];
+        mAction = new byte[capacity];
+        mId = new byte[capacity];
+        mX = new float[capacity];
+        mY = new float[capacity];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getRowHeight() {
+        return mRowHeight;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getTime(int n) {
+        return mTime[n];
+    }
+
+    public void add(long time, int action, int id, float x, float y) {
+        if(mSize == mTime.length)
+            grow();
+        mTime[mSize] = time;
+        mAction[mSize] = (byte) action;
+        mId[mSize] = (byte) id;
+        mX[mSize] = x;
+        mY[mSize] = y;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = mTime.length*2;
+        long[] time = new long[capacity];
+        byte[] action = new byte[capacity], id = new byte[capacity];
+        float[] x = new float[capacity], y = new float[capacity];
+        System.arraycopy(mTime, 0, time, 0, mSize);
+        System.arraycopy(mAction, 0, action, 0, mSize);
+        System.arraycopy(mId, 0, id, 0, mSize);
+        System.arraycopy(mX, 0, x, 0, mSize);
+        System.arraycopy(mY, 0, y, 0, mSize);
+        mTime = time;
+        mAction = action;
+        mId = id;
+        mX = x;
+        mY = y;
+    }
+
+    /** Makes the call event n was recorded from. */
+    public void dispatch(int n, TouchHandler h) {
+        switch(mAction[n]) {
+            case DOWN:
+                h.onTouchDown(mId[n], mX[n], mY[n]);
+                break;
+            case MOVE:
+                h.onTouchMove(mId[n], mX[n], mY[n]);
+                break;
+            case UP:
+                h.onTouchUp(mId[n], mX[n], mY[n]);
+                break;
+            case CANCEL:
+                h.onTouchCancel();
+                break;
+        }
+    }
+
+    public void write(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mWidth);
+        out.writeInt(mRowHeight);
+        out.writeInt(mSize);
+        long last = mSize > 0 ? mTime[0] : 0;
+        out.writeLong(last);
+        for(int n = 0; n < mSize; n++) {
+            out.writeByte(mAction[n]);
+            out.writeByte(mId[n]);
+            writeVarint(out, mTime[n] - last);
+            out.writeFloat(mX[n]);
+            out.writeFloat(mY[n]);
+            last = mTime[n];
+        }
+        out.flush();
+    }
+
+    public static TouchRecording read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        if(in.readInt() != MAGIC || in.readInt() != VERSION)
+            throw new IOException("not a touch recording");
+        int width = in.readInt();
+        int rowHeight = in.readInt();
+        int size = in.readInt();
+        TouchRecording r = new TouchRecording(width, rowHeight, Math.max(size, 1));
+        long time = in.readLong();
+        for(int n = 0; n < size; n++) {
+            int action = in.readByte();
+            int id = in.readByte();
+            time += readVarint(in);
+            r.add(time, action, id, in.readFloat(), in.readFloat());
+        }
+        return r;
+    }
+
+    // event times never go backwards, so deltas are unsigned
+    private static void writeVarint(DataOutputStream out, long v) throws IOException {
+        while((v & ~0x7fL) != 0) {
+            out.writeByte((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long v = 0;
+        for(int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7f) << shift;
+            if((b & 0x80) == 0)
+                return v;
+        }
+    }
+}
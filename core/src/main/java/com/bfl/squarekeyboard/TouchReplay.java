@@ -0,0 +1,122 @@
+package com.bfl.squarekeyboard;
+import java.io.*;
+
+/**
+ * Feeds a TouchRecording back through a TouchHandler, either as fast as
+ * possible or with the recorded pacing. Run from the command line it
+ * replays against a KeyTracker, or with --chord a ChordTracker, and a
+ * layout file without a device:
+ *
+ *   java -cp core.jar com.bfl.squarekeyboard.TouchReplay layout.txt touches.rec [--realtime] [--chord]
+ *
+ * and prints the committed text and the time spent per event.
+ */
+public final class TouchReplay {
+
+    private TouchReplay() {
+    }
+
+    /**
+     * Replays rec into h. With realTime, waits between events as long as
+     * when they were recorded. The time each event took is added to stats
+     * unless it is null.
+     */
+    public static void replay(TouchRecording rec, TouchHandler h, boolean realTime,
+            LatencyHistogram stats) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        long startTime = rec.size() > 0 ? rec.getTime(0) : 0;
+        for(int n = 0; n < rec.size(); n++) {
+            if(realTime) {
+                long due = (rec.getTime(n) - startTime) * 1000000;
+                long wait = due - (System.nanoTime() - startNanos);
+                if(wait > 0)
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            }
+            long t = System.nanoTime();
+            rec.dispatch(n, h);
+            if(stats != null)
+                stats.recordSince(t);
+        }
+    }
+
+    /**
+     * Collects everything a keyboard commits, special keys as <code> and
+     * cursor moves as <move n>.
+     */
+    public static class TextListener implements SquareKeyboard.ActionListener {
+        public final StringBuilder text = new StringBuilder();
+
+        public void onKey(char ch) {
+            text.append(ch);
+        }
+
+        public void onText(CharSequence s) {
+            text.append(s);
+        }
+
+        public void onSpecialKey(int keyCode) {
+            text.append('<').append(keyCode).append('>');
+        }
+
+        public void onMacro(Macro macro) {
+            for(int i = 0; i < macro.size(); i++) {
+                int op = macro.getOp(i);
+                if(op == Macro.TEXT)
+                    text.append(macro.getText(i));
+                else if(op == Macro.KEY)
+                    onSpecialKey(macro.getArg(i));
+                else
+                    text.append("<move ").append(macro.getArg(i)).append('>');
+            }
+        }
+
+        public void changeMode() {
+            text.append("<mode>");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 2) {
+            System.err.println("usage: TouchReplay layout.txt touches.rec [--realtime] [--chord]");
+            System.exit(2);
+        }
+        boolean realTime = false, chord = false;
+        for(int i = 2; i < args.length; i++) {
+            if(args[i].equals("--realtime"))
+                realTime = true;
+            else if(args[i].equals("--chord"))
+                chord = true;
+        }
+        TextListener listener = new TextListener();
+        SquareKeyboard kb = new SquareKeyboard(listener);
+        kb.loadFile(args[0]);
+        TouchRecording rec;
+        InputStream in = new FileInputStream(args[1]);
+        try {
+            rec = TouchRecording.read(in);
+        } finally {
+            in.close();
+        }
+        TouchHandler handler;
+        if(chord) {
+            // chord keys are square
+            ChordTracker tracker = new ChordTracker(rec.getRowHeight(), rec.getRowHeight(), 1);
+            tracker.setKeyboard(kb);
+            tracker.setWidth(rec.getWidth());
+            handler = tracker;
+        } else {
+            KeyTracker tracker = new KeyTracker(rec.getRowHeight(), 1);
+            tracker.setKeyboard(kb);
+            tracker.setWidth(rec.getWidth());
+            handler = tracker;
+        }
+        LatencyHistogram stats = new LatencyHistogram("per event");
+        replay(rec, handler, realTime, stats);
+
+        PrintWriter out = new PrintWriter(System.out);
+        out.println(rec.size() + " events, committed:");
+        out.println(listener.text);
+        stats.dump(out, "");
+        out.flush();
+    }
+}
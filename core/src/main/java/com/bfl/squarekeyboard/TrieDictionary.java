@@ -0,0 +1,298 @@
+package com.bfl.squarekeyboard;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Read only word list, used straight from a memory mapped file. The file
+ * is a trie in pre-order, so a subtree is one contiguous range:
+ *
+ *   "SQDT" version wordCount
+ *   per node: freq best childCount(u16)
+ *             childCount times: char child-offset(u32), sorted by char
+ *
+ * freq is the word's frequency class 1-255, 0 if the path is no word,
+ * and best the highest freq in the subtree, which lets top() skip whole
+ * subtrees. Words are stored in lower case. A node is named by its byte
+ * offset; -1 is no node.
+ *
+ * Build a file from a list of "word [count]" lines with
+ *
+ *   java -cp core.jar com.bfl.squarekeyboard.TrieDictionary words.txt dictionary.dict
+ */
+public final class TrieDictionary {
+    private static final int MAGIC = 0x53514454; // "SQDT"
+    private static final int VERSION = 1;
+    private static final int ROOT = 12;
+    static final int MAX_WORD = 48;
+
+    private final ByteBuffer mBuf;
+
+    public TrieDictionary(ByteBuffer buf) throws IOException {
+        if(buf.limit() < ROOT+4 || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION)
+            throw new IOException("not a dictionary");
+        mBuf = buf;
+    }
+
+    /** Maps file read only; the pages are shared, not copied to the heap. */
+    public static TrieDictionary open(File file) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            FileChannel ch = f.getChannel();
+            // the mapping stays valid after closing the file
+            return new TrieDictionary(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } finally {
+            f.close();
+        }
+    }
+
+    public int getWordCount() {
+        return mBuf.getInt(8);
+    }
+
+    public int root() {
+        return ROOT;
+    }
+
+    public int getFrequency(int node) {
+        return mBuf.get(node) & 0xff;
+    }
+
+    int getBest(int node) {
+        return mBuf.get(node+1) & 0xff;
+    }
+
+    int childCount(int node) {
+        return mBuf.getShort(node+2) & 0xffff;
+    }
+
+    // char and node of the i-th child edge of node
+    char childChar(int node, int i) {
+        return mBuf.getChar(node+4 + i*6);
+    }
+
+    int childNode(int node, int i) {
+        return mBuf.getInt(node+4 + i*6 + 2);
+    }
+
+    /** The node below node for c, or -1. */
+    public int child(int node, char c) {
+        int lo = 0, hi = (mBuf.getShort(node+2) & 0xffff) - 1;
+        int base = node+4;
+        while(lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            char k = mBuf.getChar(base + mid*6);
+            if(k < c) lo = mid+1;
+            else if(k > c) hi = mid-1;
+            else return mBuf.getInt(base + mid*6 + 2);
+        }
+        return -1;
+    }
+
+    /**
+     * Collects the k most frequent words below node into r, whose word
+     * buffers start with the depth chars leading to node.
+     */
+    public void top(int node, int depth, Result r) {
+        r.clear();
+        if(node < 0)
+            return;
+        collect(node, depth, r);
+    }
+
+    private void collect(int node, int depth, Result r) {
+        int f = getFrequency(node);
+        if(f > r.threshold())
+            r.insert(depth, f);
+        if(depth >= MAX_WORD)
+            return;
+        int n = mBuf.getShort(node+2) & 0xffff;
+        int base = node+4;
+        for(int i = 0; i < n; i++) {
+            int child = mBuf.getInt(base + i*6 + 2);
+            // nothing in there beats what we have
+            if(getBest(child) <= r.threshold())
+                continue;
+            r.mWord[depth] = mBuf.getChar(base + i*6);
+            collect(child, depth+1, r);
+        }
+    }
+
+    /** The k best words of a top() call, reused between calls. */
+    public static final class Result {
+        final char[] mWord = new char[MAX_WORD];
+        private final char[][] mWords;
+        private final int[] mLength, mFreq;
+        private int mCount;
+
+        public Result(int k) {
+            mWords = new char[k][MAX_WORD];
+            mLength = new int[k];
+            mFreq = new int[k];
+        }
+
+        /** The word buffer top() continues; put the prefix here. */
+        public char[] prefix() {
+            return mWord;
+        }
+
+        void clear() {
+            mCount = 0;
+        }
+
+        // freq a word needs to get in
+        int threshold() {
+            return mCount < mFreq.length ? 0 : mFreq[mCount-1];
+        }
+
+        // keeps the words sorted by freq, earlier found wins ties
+        void insert(int length, int freq) {
+            int i = Math.min(mCount, mFreq.length-1);
+            char[] spare = mWords[i];
+            while(i > 0 && mFreq[i-1] < freq) {
+                mWords[i] = mWords[i-1];
+                mLength[i] = mLength[i-1];
+                mFreq[i] = mFreq[i-1];
+                i--;
+            }
+            System.arraycopy(mWord, 0, spare, 0, length);
+            mWords[i] = spare;
+            mLength[i] = length;
+            mFreq[i] = freq;
+            if(mCount < mFreq.length)
+                mCount++;
+        }
+
+        public int size() {
+            return mCount;
+        }
+
+        public int getFrequency(int i) {
+            return mFreq[i];
+        }
+
+        /** Word i with its first from chars taken from prefix instead. */
+        public String getWord(int i, CharSequence prefix, int from) {
+            StringBuilder sb = new StringBuilder(mLength[i]);
+            sb.append(prefix, 0, from);
+            sb.append(mWords[i], from, mLength[i]-from);
+            return sb.toString();
+        }
+    }
+
+    /** Collects words in memory and writes them in the mapped format. */
+    public static final class Builder {
+        private static final class Node {
+            int freq, best, offset;
+            final TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+        }
+
+        private final Node mRoot = new Node();
+        private int mWords;
+
+        /** freq is clamped to 1-255; the higher of two adds stays. */
+        public void add(String word, int freq) {
+            if(word.length() == 0 || word.length() > MAX_WORD)
+                return;
+            freq = Math.max(1, Math.min(255, freq));
+            Node n = mRoot;
+            for(int i = 0; i < word.length(); i++) {
+                n.best = Math.max(n.best, freq);
+                Character c = Character.toLowerCase(word.charAt(i));
+                Node next = n.children.get(c);
+                if(next == null) {
+                    next = new Node();
+                    n.children.put(c, next);
+                }
+                n = next;
+            }
+            if(n.freq == 0)
+                mWords++;
+            n.freq = Math.max(n.freq, freq);
+            n.best = Math.max(n.best, n.freq);
+        }
+
+        public void write(OutputStream os) throws IOException {
+            List<Node> order = new ArrayList<Node>();
+            int end = layout(mRoot, ROOT, order);
+            if(end < 0)
+                throw new IOException("dictionary too large");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mWords);
+            for(Node n : order) {
+                out.writeByte(n.freq);
+                out.writeByte(n.best);
+                out.writeShort(n.children.size());
+                for(Map.Entry<Character, Node> e : n.children.entrySet()) {
+                    out.writeChar(e.getKey());
+                    out.writeInt(e.getValue().offset);
+                }
+            }
+            out.flush();
+        }
+
+        // assigns pre-order offsets, returns the end offset
+        private static int layout(Node n, int offset, List<Node> order) {
+            n.offset = offset;
+            order.add(n);
+            offset += 4 + 6*n.children.size();
+            for(Node c : n.children.values())
+                offset = layout(c, offset, order);
+            return offset;
+        }
+    }
+
+    /**
+     * Reads "word [count]" lines. Without counts, lines are taken to be in
+     * order of decreasing frequency. Counts are mapped to 1-255 on a log
+     * scale.
+     */
+    public static Builder readWordList(Reader r) throws IOException {
+        BufferedReader in = new BufferedReader(r);
+        List<String> words = new ArrayList<String>();
+        List<Long> counts = new ArrayList<Long>();
+        String line;
+        while((line = in.readLine()) != null) {
+            String[] f = line.trim().split("\\s+");
+            if(f[0].length() == 0 || f[0].startsWith("#"))
+                continue;
+            words.add(f[0]);
+            counts.add(f.length > 1 ? Long.parseLong(f[1]) : -1L);
+        }
+        long max = 1;
+        for(int i = 0; i < words.size(); i++) {
+            if(counts.get(i) < 0)
+                counts.set(i, (long) (words.size() - i));
+            max = Math.max(max, counts.get(i));
+        }
+        Builder b = new Builder();
+        double scale = 254 / Math.log(max+1);
+        for(int i = 0; i < words.size(); i++)
+            b.add(words.get(i), 1 + (int) (Math.log(counts.get(i)+1) * scale));
+        return b;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            System.err.println("usage: TrieDictionary words.txt dictionary.dict");
+            System.exit(2);
+        }
+        Reader in = new InputStreamReader(new FileInputStream(args[0]), "UTF-8");
+        Builder b;
+        try {
+            b = readWordList(in);
+        } finally {
+            in.close();
+        }
+        OutputStream out = new FileOutputStream(args[1]);
+        try {
+            b.write(out);
+        } finally {
+            out.close();
+        }
+        System.out.println(b.mWords + " words");
+    }
+}
@@ -0,0 +1,218 @@
+package com.bfl.squarekeyboard;
+
+/**
+ * Completions of the word being typed. Fed every committed char, it
+ * walks the dictionary one node per char and keeps the path, so a
+ * keystroke is one child lookup plus a top() below the new node, and a
+ * backspace just steps back.
+ *
+ * Words learned by a personal NgramModel come first, ranked by the two
+ * words typed before; the dictionary fills the remaining places. Either
+ * source may be missing. Once what was typed is no prefix of any
+ * dictionary word, SpatialCorrector corrections take their place.
+ */
+public final class WordPredictor {
+    private TrieDictionary mDict;
+    private NgramModel mModel;
+    private SpatialCorrector mCorrector;
+    private final TrieDictionary.Result mResult, mCorrections;
+    // the word so far as typed, and the node after each of its chars,
+    // -1 once it left the dictionary
+    private final StringBuilder mTyped = new StringBuilder(TrieDictionary.MAX_WORD);
+    private final int[] mPath = new int[TrieDictionary.MAX_WORD+1];
+    // the last two finished words in lower case, null after a break
+    private String mPrev1, mPrev2;
+    private final String[] mCandidates;
+    private final String[] mLearned;
+    private int mCount;
+
+    public WordPredictor(int maxCandidates) {
+        mResult = new TrieDictionary.Result(maxCandidates);
+        mCorrections = new TrieDictionary.Result(maxCandidates);
+        mCandidates = new String[maxCandidates];
+        mLearned = new String[maxCandidates];
+        mPath[0] = -1;
+    }
+
+    public WordPredictor(TrieDictionary dict, int maxCandidates) {
+        this(maxCandidates);
+        setDictionary(dict);
+    }
+
+    public void setDictionary(TrieDictionary dict) {
+        mDict = dict;
+        reset();
+        mPath[0] = dict == null ? -1 : dict.root();
+    }
+
+    /** Corrects against the dictionary; null for no corrections. */
+    public void setCorrector(SpatialCorrector corrector) {
+        mCorrector = corrector;
+        reset();
+    }
+
+    public void setModel(NgramModel model) {
+        mModel = model;
+        reset();
+    }
+
+    /** True if there is anything to predict from. */
+    public boolean hasSource() {
+        return mDict != null || mModel != null;
+    }
+
+    static boolean isWordChar(char c) {
+        return Character.isLetter(c) || c == '\'';
+    }
+
+    /** Returns true if the candidates changed. */
+    public boolean onChar(char c) {
+        if(!isWordChar(c)) {
+            endWord();
+            if(c == '.' || c == '!' || c == '?' || c == '\n')
+                mPrev1 = mPrev2 = null;
+            return clearCandidates();
+        }
+        int len = mTyped.length();
+        if(len >= TrieDictionary.MAX_WORD) {
+            // too long for any word, but keep counting for backspace
+            mTyped.append(c);
+            return clearCandidates();
+        }
+        int node = mPath[len];
+        char lc = Character.toLowerCase(c);
+        mPath[len+1] = node < 0 ? -1 : mDict.child(node, lc);
+        mTyped.append(c);
+        mResult.prefix()[len] = lc;
+        return update();
+    }
+
+    public boolean onText(CharSequence text) {
+        boolean changed = false;
+        for(int i = 0; i < text.length(); i++)
+            changed |= onChar(text.charAt(i));
+        return changed;
+    }
+
+    /** The last char was deleted. */
+    public boolean onBackspace() {
+        int len = mTyped.length();
+        if(len == 0)
+            return false;
+        mTyped.setLength(len-1);
+        if(len-1 > TrieDictionary.MAX_WORD)
+            return false;
+        return update();
+    }
+
+    /**
+     * Candidate i replaces the typed word, which counts as finished.
+     * Returns the candidate.
+     */
+    public String pick(int i) {
+        String w = mCandidates[i];
+        mPrev2 = mPrev1;
+        mPrev1 = w.toLowerCase();
+        mTyped.setLength(0);
+        clearCandidates();
+        return w;
+    }
+
+    /** The cursor left the word; start over without context. */
+    public boolean reset() {
+        mPrev1 = mPrev2 = null;
+        mTyped.setLength(0);
+        return clearCandidates();
+    }
+
+    private void endWord() {
+        int len = mTyped.length();
+        if(len == 0)
+            return;
+        if(len <= TrieDictionary.MAX_WORD) {
+            mPrev2 = mPrev1;
+            mPrev1 = new String(mResult.prefix(), 0, len);
+        }
+        mTyped.setLength(0);
+    }
+
+    private boolean clearCandidates() {
+        boolean changed = mCount > 0;
+        mCount = 0;
+        return changed;
+    }
+
+    private boolean update() {
+        int len = mTyped.length();
+        if(len == 0)
+            return clearCandidates();
+        int n = 0;
+        if(mModel != null) {
+            String prefix = new String(mResult.prefix(), 0, len);
+            // -1 while learning holds the model, then dictionary words only
+            int learned = mModel.complete(mPrev2, mPrev1, prefix, mLearned);
+            for(int i = 0; i < learned; i++)
+                mCandidates[n++] = join(mLearned[i], len);
+        }
+        if(mDict == null || n == mCandidates.length) {
+            mCount = n;
+            return true;
+        }
+        int node = mPath[len];
+        if(node >= 0) {
+            mDict.top(node, len, mResult);
+            for(int i = 0; i < mResult.size(); i++)
+                n = addCandidate(mResult.getWord(i, mTyped, len), n);
+        } else if(mCorrector != null) {
+            mCorrector.correct(mResult.prefix(), len, mCorrections);
+            for(int i = 0; i < mCorrections.size(); i++)
+                n = addCandidate(correction(i), n);
+        }
+        mCount = n;
+        return true;
+    }
+
+    private int addCandidate(String w, int n) {
+        if(n == mCandidates.length || contains(w, n))
+            return n;
+        mCandidates[n] = w;
+        return n+1;
+    }
+
+    // correction i, capitalized if the typed word is
+    private String correction(int i) {
+        String w = mCorrections.getWord(i, "", 0);
+        if(Character.isUpperCase(mTyped.charAt(0)))
+            w = Character.toUpperCase(w.charAt(0)) + w.substring(1);
+        return w;
+    }
+
+    // word with its first len chars as typed
+    private String join(String word, int len) {
+        StringBuilder sb = new StringBuilder(word.length());
+        sb.append(mTyped, 0, len);
+        sb.append(word, len, word.length());
+        return sb.toString();
+    }
+
+    private boolean contains(String w, int n) {
+        for(int i = 0; i < n; i++) {
+            if(mCandidates[i].equals(w))
+                return true;
+        }
+        return false;
+    }
+
+    /** Length of the word typed so far, what picking a candidate replaces. */
+    public int getTypedLength() {
+        return mTyped.length();
+    }
+
+    public int getCandidateCount() {
+        return mCount;
+    }
+
+    public String getCandidate(int i) {
+        return mCandidates[i];
+    }
+}
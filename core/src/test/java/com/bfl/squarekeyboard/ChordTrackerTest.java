@@ -0,0 +1,104 @@
+package com.bfl.squarekeyboard;
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Chords replayed through a ChordTracker, from touches added here and
+ * from chords.rec, a saved 1080 pixel wide recording of:
+ *
+ *   c alone, a and b overlapping, e sliding down onto f, s and t,
+ *   a cancelled, t alone, a with a finger between the blocks
+ */
+public class ChordTrackerTest {
+    static final String LAYOUT =
+        "size 1 1\n" +
+        "layout base {\n" +
+        "    x\n" +
+        "}\n" +
+        "state main {\n" +
+        "    layout base\n" +
+        "}\n" +
+        "chord a e\n" +
+        "chord c a\n" +
+        "chord t b\n" +
+        "chord ab \" \"\n" +
+        "chord ef k\n" +
+        "chord st BKSP\n";
+
+    static final int WIDTH = 1080, KEY_SIZE = 50;
+    // x of the right block
+    static final int RIGHT = WIDTH - ChordTracker.COLS*KEY_SIZE - 1;
+
+    TouchReplay.TextListener mListener;
+    ChordTracker mTracker;
+
+    @Before
+    public void setUp() {
+        mListener = new TouchReplay.TextListener();
+        SquareKeyboard kb = new SquareKeyboard(mListener);
+        kb.load(new StringReader(LAYOUT));
+        mTracker = new ChordTracker(KEY_SIZE, KEY_SIZE, 1);
+        mTracker.setKeyboard(kb);
+        mTracker.setWidth(WIDTH);
+    }
+
+    @Test
+    public void keyIds() {
+        assertEquals(0, mTracker.posToId(25, 25));
+        assertEquals(1, mTracker.posToId(25, 75));
+        assertEquals(4, mTracker.posToId(125, 25));
+        assertEquals(19, mTracker.posToId(RIGHT+225, 75));
+        assertEquals(-2, mTracker.posToId(WIDTH/2, 25));
+        assertEquals(-1, mTracker.posToId(25, 2*KEY_SIZE+10));
+    }
+
+    @Test
+    public void typesWhenLastPointerIsUp() {
+        mTracker.onTouchDown(0, 25, 25);
+        mTracker.onTouchDown(1, 25, 75);
+        mTracker.onTouchUp(0, 25, 25);
+        assertEquals("", mListener.text.toString());
+        mTracker.onTouchUp(1, 25, 75);
+        assertEquals(" ", mListener.text.toString());
+    }
+
+    @Test
+    public void slidOverKeysCount() {
+        mTracker.onTouchDown(0, 125, 25);
+        mTracker.onTouchMove(0, 125, 75);
+        mTracker.onTouchUp(0, 125, 75);
+        assertEquals("k", mListener.text.toString());
+    }
+
+    @Test
+    public void previewWidthsMeasuredOnLoad() {
+        SquareKeyboard kb = new SquareKeyboard(mListener);
+        kb.setPreviewMeasure(new ChordMap.TextMeasure() {
+            public float measure(String label) {
+                return 10*label.length();
+            }
+        });
+        kb.load(new StringReader(LAYOUT));
+        assertEquals(10, kb.getChordLabelWidth(Chord.parse("ef")), 0);
+        assertEquals(-1, kb.getChordLabelWidth(Chord.parse("abc")), 0);
+    }
+
+    @Test
+    public void recorded() throws Exception {
+        TouchRecording rec;
+        InputStream in = getClass().getResourceAsStream("chords.rec");
+        try {
+            rec = TouchRecording.read(in);
+        } finally {
+            in.close();
+        }
+        assertEquals(WIDTH, rec.getWidth());
+        assertEquals(KEY_SIZE, rec.getRowHeight());
+        TouchReplay.replay(rec, mTracker, false, null);
+        assertEquals("a k<" + KeyCodes.KEYCODE_DEL + ">be", mListener.text.toString());
+    }
+}
@@ -0,0 +1,33 @@
+package com.bfl.squarekeyboard;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Input type kinds, in particular every password variation, which
+ * KeyboardService neither predicts nor learns from.
+ */
+public class InputTypesTest {
+
+    @Test
+    public void passwords() {
+        int[] variations = {
+            InputTypes.TYPE_TEXT_VARIATION_PASSWORD,
+            InputTypes.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD,
+            InputTypes.TYPE_TEXT_VARIATION_WEB_PASSWORD,
+        };
+        for(int v: variations)
+            assertEquals(InputTypes.PASSWORD,
+                    InputTypes.variationKind(InputTypes.TYPE_CLASS_TEXT | v));
+    }
+
+    @Test
+    public void notPasswords() {
+        assertEquals(InputTypes.EMAIL, InputTypes.variationKind(InputTypes.TYPE_CLASS_TEXT
+                    | InputTypes.TYPE_TEXT_VARIATION_WEB_EMAIL_ADDRESS));
+        assertEquals(-1, InputTypes.variationKind(InputTypes.TYPE_CLASS_TEXT));
+        // a number password is not text
+        assertEquals(-1, InputTypes.variationKind(InputTypes.TYPE_CLASS_NUMBER
+                    | InputTypes.TYPE_TEXT_VARIATION_PASSWORD));
+    }
+}
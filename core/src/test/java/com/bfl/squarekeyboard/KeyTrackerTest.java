@@ -0,0 +1,155 @@
+package com.bfl.squarekeyboard;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Overlapping presses replayed through a KeyTracker: every pointer types
+ * its own key, in the order the pointers are released.
+ */
+public class KeyTrackerTest {
+    static final String LAYOUT =
+        "size 2 3\n" +
+        "layout base {\n" +
+        "    a b c\n" +
+        "    d e f\n" +
+        "}\n" +
+        "layout up {\n" +
+        "    A B C\n" +
+        "    D E F\n" +
+        "}\n" +
+        "state main {\n" +
+        "    layout base\n" +
+        "    swipe_up up\n" +
+        "}\n";
+
+    // a diagonal makes swipes go 8 ways, the others have no layer
+    static final String DIAGONAL =
+        "layout right {\n" +
+        "    1 2 3\n" +
+        "    4 5 6\n" +
+        "}\n" +
+        "layout downleft {\n" +
+        "    x\n" +
+        "}\n" +
+        "state diag {\n" +
+        "    layout base\n" +
+        "    swipe_up up\n" +
+        "    swipe_right right\n" +
+        "    swipe_down_left downleft\n" +
+        "}\n";
+
+    // three 100 pixel columns of 120 pixel rows
+    static final int WIDTH = 301, ROW_HEIGHT = 120;
+
+    TouchReplay.TextListener mListener;
+    KeyTracker mTracker;
+    TouchRecording mRec;
+    long mTime;
+
+    @Before
+    public void setUp() {
+        mListener = new TouchReplay.TextListener();
+        SquareKeyboard kb = new SquareKeyboard(mListener);
+        kb.load(new StringReader(LAYOUT));
+        mTracker = new KeyTracker(ROW_HEIGHT, 1);
+        mTracker.setKeyboard(kb);
+        mTracker.setWidth(WIDTH);
+        mRec = new TouchRecording(WIDTH, ROW_HEIGHT);
+        mTime = 1000;
+    }
+
+    private void add(int action, int id, float x, float y) {
+        mTime += 20;
+        mRec.add(mTime, action, id, x, y);
+    }
+
+    // replays what was added, after a round trip through the file format
+    private String replay() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mRec.write(out);
+        TouchRecording rec = TouchRecording.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(mRec.size(), rec.size());
+        TouchReplay.replay(rec, mTracker, false, null);
+        return mListener.text.toString();
+    }
+
+    @Test
+    public void releasedInPressOrder() throws Exception {
+        add(TouchRecording.DOWN, 0, 50, 60);
+        add(TouchRecording.DOWN, 1, 150, 60);
+        add(TouchRecording.UP, 0, 50, 60);
+        add(TouchRecording.UP, 1, 150, 60);
+        assertEquals("ab", replay());
+    }
+
+    @Test
+    public void releasedInReverseOrder() throws Exception {
+        add(TouchRecording.DOWN, 0, 50, 60);
+        add(TouchRecording.DOWN, 1, 150, 60);
+        add(TouchRecording.UP, 1, 150, 60);
+        add(TouchRecording.UP, 0, 50, 60);
+        assertEquals("ba", replay());
+    }
+
+    @Test
+    public void rolledOver() throws Exception {
+        add(TouchRecording.DOWN, 0, 50, 60);
+        add(TouchRecording.DOWN, 1, 150, 60);
+        add(TouchRecording.UP, 0, 50, 60);
+        add(TouchRecording.DOWN, 0, 250, 180);
+        add(TouchRecording.UP, 1, 150, 60);
+        add(TouchRecording.UP, 0, 250, 180);
+        assertEquals("abf", replay());
+    }
+
+    @Test
+    public void secondPointerSwipes() throws Exception {
+        add(TouchRecording.DOWN, 0, 50, 60);
+        add(TouchRecording.DOWN, 1, 150, 230);
+        add(TouchRecording.MOVE, 1, 150, 180);
+        add(TouchRecording.MOVE, 1, 151, 125);
+        add(TouchRecording.UP, 1, 151, 125);
+        add(TouchRecording.UP, 0, 50, 60);
+        assertEquals("Ea", replay());
+    }
+
+    @Test
+    public void firstReleasedDuringSwipe() throws Exception {
+        add(TouchRecording.DOWN, 0, 50, 60);
+        add(TouchRecording.DOWN, 1, 150, 230);
+        add(TouchRecording.MOVE, 1, 150, 180);
+        add(TouchRecording.UP, 0, 50, 60);
+        add(TouchRecording.MOVE, 1, 151, 125);
+        add(TouchRecording.UP, 1, 151, 125);
+        assertEquals("aE", replay());
+    }
+
+    @Test
+    public void diagonalFallsBackToStraight() throws Exception {
+        SquareKeyboard kb = new SquareKeyboard(mListener);
+        kb.load(new StringReader(LAYOUT + DIAGONAL));
+        kb.setState("diag");
+        mTracker.setKeyboard(kb);
+        // up and right, then down and right, across e
+        add(TouchRecording.DOWN, 0, 105, 235);
+        add(TouchRecording.UP, 0, 175, 165);
+        add(TouchRecording.DOWN, 0, 105, 125);
+        add(TouchRecording.UP, 0, 175, 195);
+        assertEquals("E5", replay());
+    }
+
+    @Test
+    public void cancelPressesNothing() throws Exception {
+        add(TouchRecording.DOWN, 0, 50, 60);
+        add(TouchRecording.DOWN, 1, 150, 60);
+        add(TouchRecording.UP, 0, 50, 60);
+        add(TouchRecording.CANCEL, 0, -1, -1);
+        add(TouchRecording.UP, 1, 150, 60);
+        assertEquals("a", replay());
+    }
+}
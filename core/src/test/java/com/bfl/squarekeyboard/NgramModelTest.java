@@ -0,0 +1,61 @@
+package com.bfl.squarekeyboard;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Completion ranking by context, and that it survives the tables filling
+ * up: halving drops rare words and renumbers the rest, and the n-gram
+ * keys must be renumbered along with them.
+ */
+public class NgramModelTest {
+    private final String[] mOut = new String[4];
+
+    private String best(NgramModel m, String prev2, String prev1, String prefix) {
+        int n = m.complete(prev2, prev1, prefix, mOut);
+        assertTrue(n > 0);
+        return mOut[0];
+    }
+
+    private static NgramModel trained() {
+        NgramModel m = new NgramModel(16, 64);
+        // used once, the first to go, so the words below get new ids
+        m.learn("alpha beta gamma delta.\n");
+        for(int i = 0; i < 4; i++)
+            m.learn("new york.\n");
+        for(int i = 0; i < 4; i++)
+            m.learn("i love new yarn.\n");
+        for(int i = 0; i < 12; i++)
+            m.learn("yes.\n");
+        return m;
+    }
+
+    private void assertRanking(NgramModel m) {
+        assertEquals("yes", best(m, null, null, "y"));
+        assertEquals("york", best(m, null, "new", "y"));
+        assertEquals("yarn", best(m, "love", "new", "y"));
+    }
+
+    @Test
+    public void ranksByContext() {
+        assertRanking(trained());
+    }
+
+    @Test
+    public void contextSurvivesDecay() {
+        NgramModel m = trained();
+        int words = m.getWordCount();
+        // new words until the word table is full and gets halved
+        for(int i = 0; i < 16 && m.getWordCount() >= words; i++)
+            m.learn("w" + (char)('a' + i) + ".\n");
+        assertTrue(m.getWordCount() < words);
+        assertEquals(0, m.complete(null, null, "alpha", mOut));
+        assertRanking(m);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void idsFitTheKeys() {
+        new NgramModel(NgramModel.MAX_WORDS + 1, 16);
+    }
+}
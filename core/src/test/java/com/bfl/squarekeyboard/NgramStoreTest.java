@@ -0,0 +1,117 @@
+package com.bfl.squarekeyboard;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A model saved as snapshot and log comes back as it was, also after a
+ * record was cut short and more was learned behind it.
+ */
+public class NgramStoreTest {
+    @Rule
+    public TemporaryFolder mDir = new TemporaryFolder();
+
+    private NgramStore store() {
+        return new NgramStore(new NgramModel(64, 256), mDir.getRoot(), "test");
+    }
+
+    private File log() {
+        return new File(mDir.getRoot(), "test.log");
+    }
+
+    private void append(int... bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(log(), true);
+        try {
+            for(int b: bytes)
+                out.write(b);
+        } finally {
+            out.close();
+        }
+    }
+
+    // a model that learned texts directly, context breaks as null
+    private static byte[] learned(String... texts) {
+        NgramModel m = new NgramModel(64, 256);
+        for(String t: texts) {
+            if(t == null)
+                m.breakContext();
+            else
+                m.learn(t);
+        }
+        return m.toByteArray();
+    }
+
+    @Test
+    public void snapshotAndLogRoundTrip() throws IOException {
+        NgramStore s = store();
+        s.load();
+        s.learn("the quick fox ");
+        s.breakContext();
+        s.compact();
+        s.learn("the quick dog ");
+        s.learn("café ");
+        s.close();
+
+        NgramStore t = store();
+        t.load();
+        assertArrayEquals(learned("the quick fox ", null, "the quick dog ", "café "),
+                t.getModel().toByteArray());
+    }
+
+    // a record cut short, then more learned and the store loaded again
+    private void learnedBehindCut(int... tail) throws IOException {
+        NgramStore s = store();
+        s.load();
+        s.learn("hello hello ");
+        s.close();
+        long good = log().length();
+        append(tail);
+
+        s = store();
+        s.load();
+        assertEquals(good, log().length());
+        s.learn("café café ");
+        s.close();
+
+        s = store();
+        s.load();
+        assertArrayEquals(learned("hello hello ", "café café "),
+                s.getModel().toByteArray());
+    }
+
+    @Test
+    public void cutRecordWithoutText() throws IOException {
+        learnedBehindCut(0, 0, 4);
+    }
+
+    @Test
+    public void cutRecordWithSomeText() throws IOException {
+        learnedBehindCut(0, 0, 20, 'a', 'b');
+    }
+
+    @Test
+    public void garbledRecord() throws IOException {
+        // not valid modified UTF-8
+        learnedBehindCut(0, 0, 2, 0xc3, 0x28);
+    }
+
+    @Test
+    public void badSnapshotIsNotRead() throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(mDir.getRoot(), "test.bin"));
+        out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        out.close();
+        try {
+            store().load();
+            fail("loaded a bad snapshot");
+        } catch(IOException e) {
+            // expected
+        }
+    }
+}
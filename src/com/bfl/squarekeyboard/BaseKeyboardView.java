@@ -15,19 +15,41 @@ import android.util.Log;
 import android.util.TypedValue;
 import android.content.res.Resources;
 
-public abstract class BaseKeyboardView extends View {
+public abstract class BaseKeyboardView extends View implements TouchHandler {
     int mWidth, mHeight;
+    int mRowHeight;
     boolean mNeedsDraw = true;
+    // shared with the other views, see KeyPaints; never change them
     Paint mTextPaint, mBackgroundPaint, mBorderPaint;
     Paint mActivePaint, mLatchedPaint, mAltTextPaint, mSmallTextPaint;
+    // popup preview, null until first shown
     TextView mPreviewView;
     Drawable mNormalPopupBackground;
     Drawable mSwipedPopupBackground;
     PopupWindow mPreviewWindow;
     final int mPreviewPadW = 4;
     final int mPreviewHeight = 40;
+
+    // draw the preview into the view itself rather than moving
+    // mPreviewWindow around, which costs a window relayout per change
+    boolean mInlinePreview = true;
+    // inline preview paints, by KeyPaints.previewSizeClass() of the label
+    Paint[] mPreviewTextPaints;
+    float[] mPreviewTextOffset;
+    Paint mPreviewPaint, mPreviewBorderPaint, mPreviewSwipedBorderPaint;
+    String mPreviewLabel;
+    int mPreviewState;
+    boolean mPreviewShown;
+    final Rect mPreviewRect = new Rect();
+    final int mPreviewStroke = 2;
+
+    // every touch call is added here while recording, see KeyboardService
+    TouchRecording mRecording;
     
     private final String TAG = "SquareKeyboardView";
+    // per touch event logging; the last events are in the dump anyway
+    static final boolean DEBUG = false;
+
     public BaseKeyboardView(Context context) {
         super(context);
         construct();
@@ -44,31 +66,26 @@ public abstract class BaseKeyboardView extends View {
     }
 
     private void construct() {
+        KeyPaints p = KeyPaints.get();
+        mTextPaint = p.text;
+        mAltTextPaint = p.altText;
+        mSmallTextPaint = p.smallText;
+        mBackgroundPaint = p.background;
+        mActivePaint = p.active;
+        mLatchedPaint = p.latched;
+        mBorderPaint = p.border;
+        mPreviewPaint = p.preview;
+        mPreviewBorderPaint = p.previewBorder;
+        mPreviewSwipedBorderPaint = p.previewSwipedBorder;
+        mPreviewTextPaints = p.previewText;
+        mPreviewTextOffset = p.previewTextOffset;
+    }
+
+    // the popup preview is only made when first shown, most of the time
+    // the inline one is used
+    private void createPreviewWindow() {
         LayoutInflater inflater = (LayoutInflater)
             getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        mTextPaint = new Paint();
-        mTextPaint.setAntiAlias(true);
-        //mTextPaint.setTypeface(Typeface.MONOSPACE);
-        mTextPaint.setTextSize(15);
-        mTextPaint.setTextAlign(Paint.Align.CENTER);
-        mTextPaint.setARGB(255,255,255,255);
-        mAltTextPaint = new Paint(mTextPaint);
-        mAltTextPaint.setARGB(255,128,128,128);
-        mSmallTextPaint = new Paint(mTextPaint);
-        mSmallTextPaint.setTextSize(13);
-
-
-        // xmlify this
-        mBackgroundPaint = new Paint();
-        mBackgroundPaint.setARGB(255,16,16,16);
-        mActivePaint = new Paint();
-        mActivePaint.setARGB(255,16,130,200);
-        mLatchedPaint = new Paint();
-        mLatchedPaint.setARGB(255,70,160,00);
-        mBorderPaint = new Paint();
-        mBorderPaint.setARGB(255,0,130,180);
-        //mBorderPaint.setAntiAlias(true);
-
         mPreviewWindow = new PopupWindow(getContext());
 
         mPreviewView = (TextView) inflater.inflate(R.layout.popup, null);
@@ -106,16 +123,79 @@ public abstract class BaseKeyboardView extends View {
         updateSize();
     }
 
-    void forceDraw() {
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // swapped out by KeyboardService.changeMode()
+        hidePreview();
+    }
+
+    public void forceDraw() {
         //mNeedsDraw = true;
         invalidate();
     }
 
+    /** Text width of label in the inline preview, for caching per key. */
+    protected float measurePreview(String label) {
+        return mPreviewTextPaints[KeyPaints.previewSizeClass(label)].measureText(label);
+    }
+
+    /**
+     * Shows the preview inside the view, centered at x with its bottom at
+     * y, moved inside the view if needed. Only the old and new preview
+     * rectangles are invalidated; subclasses paint it with drawPreview()
+     * last thing in onDraw(). textWidth is measurePreview(label), or
+     * negative to measure here.
+     */
+    protected void showInlinePreview(String label, int state, float textWidth, int x, int y) {
+        if(textWidth < 0) 
+            textWidth = measurePreview(label);
+        int w = (int) textWidth + 2*mPreviewPadW + 2*mPreviewStroke;
+        int h = Math.min(mPreviewHeight, mHeight);
+        int left = Math.max(0, Math.min(x - w/2, mWidth - w));
+        int top = Math.max(0, Math.min(y - h, mHeight - h));
+        if(mPreviewShown) {
+            if(label.equals(mPreviewLabel) && state == mPreviewState
+                    && left == mPreviewRect.left && top == mPreviewRect.top) 
+                return;
+            invalidate(mPreviewRect);
+        }
+        mPreviewLabel = label;
+        mPreviewState = state;
+        mPreviewShown = true;
+        mPreviewRect.set(left, top, left+w, top+h);
+        invalidate(mPreviewRect);
+    }
+
+    protected void hidePreview() {
+        if(mPreviewShown) {
+            mPreviewShown = false;
+            invalidate(mPreviewRect);
+        }
+        if(mPreviewWindow != null && mPreviewWindow.isShowing()) 
+            mPreviewWindow.dismiss();
+    }
+
+    protected void drawPreview(Canvas c) {
+        if(!mPreviewShown) 
+            return;
+        Rect r = mPreviewRect;
+        Paint border = (mPreviewState == SquareKeyboard.KEYSTATE_SWIPED) ?
+            mPreviewSwipedBorderPaint : mPreviewBorderPaint;
+        c.drawRect(r, border);
+        c.drawRect(r.left+mPreviewStroke, r.top+mPreviewStroke,
+                r.right-mPreviewStroke, r.bottom-mPreviewStroke, mPreviewPaint);
+        int cls = KeyPaints.previewSizeClass(mPreviewLabel);
+        c.drawText(mPreviewLabel, (r.left+r.right)/2f,
+                (r.top+r.bottom)/2f + mPreviewTextOffset[cls], mPreviewTextPaints[cls]);
+    }
+
     protected void showPreview(String label, int state, int x, int y) {
+        if(mPreviewWindow == null) 
+            createPreviewWindow();
         mPreviewView.setText(label);
         // not like this!!
         if(state == SquareKeyboard.KEYSTATE_SWIPED) {
-            Log.d(TAG, "swiped1!");
             mPreviewView.setBackgroundDrawable(mSwipedPopupBackground);
         } else {
             mPreviewView.setBackgroundDrawable(mNormalPopupBackground);
@@ -154,46 +234,69 @@ public abstract class BaseKeyboardView extends View {
     @Override
     public boolean onTouchEvent(MotionEvent ev) {
         int a = ev.getActionMasked();
-        String action = null;
         if(a == ev.ACTION_MOVE) {
-            //action = "MOVE";
-            for(int i = 0; i < ev.getPointerCount(); i++) {
-                onTouchMove(ev.getPointerId(i),ev.getX(i),ev.getY(i));
+            // moves are batched, go through the samples in between too
+            // so fast swipes are seen as they happened
+            int n = ev.getPointerCount();
+            int history = ev.getHistorySize();
+            for(int h = 0; h < history; h++) {
+                long time = ev.getHistoricalEventTime(h);
+                for(int i = 0; i < n; i++) {
+                    move(time,ev.getPointerId(i),ev.getHistoricalX(i,h),ev.getHistoricalY(i,h));
+                }
+            }
+            for(int i = 0; i < n; i++) {
+                move(ev.getEventTime(),ev.getPointerId(i),ev.getX(i),ev.getY(i));
             }
         } else if(a == ev.ACTION_CANCEL) {
-            action = "CANCEL";
-            onTouchUp(0,-1f,-1f);
+            InputStats.logTouch(ev.getEventTime(), a, 0, -1f, -1f);
+            if(mRecording != null) 
+                mRecording.add(ev.getEventTime(), TouchRecording.CANCEL, 0, -1f, -1f);
+            onTouchCancel();
         } else if(a == ev.ACTION_OUTSIDE) {
-            action = "OUTSIDE";
+            InputStats.logTouch(ev.getEventTime(), a, 0, -1f, -1f);
         } else {
             int idx =ev.getActionIndex() ; 
             int id = ev.getPointerId(idx);
             float x = ev.getX(idx);
             float y = ev.getY(idx);
-            if( a == ev.ACTION_DOWN) {
-                action  = "DOWN";
-                onTouchDown(id,x,y);
-            } else if( a == ev.ACTION_POINTER_DOWN) {
-                action  = "PTR_DOWN";
+            if( a == ev.ACTION_DOWN || a == ev.ACTION_POINTER_DOWN) {
+                InputStats.logTouch(ev.getEventTime(), a, id, x, y);
+                if(mRecording != null) 
+                    mRecording.add(ev.getEventTime(), TouchRecording.DOWN, id, x, y);
                 onTouchDown(id,x,y);
-            } else if(a == ev.ACTION_UP) {
-                action = "UP";
-                onTouchUp(id,x,y);
-            } else if( a == ev.ACTION_POINTER_UP) {
-                action  = "PTR_UP";
+            } else if(a == ev.ACTION_UP || a == ev.ACTION_POINTER_UP) {
+                InputStats.logTouch(ev.getEventTime(), a, id, x, y);
+                InputStats.touchUp(ev.getEventTime());
+                if(mRecording != null) 
+                    mRecording.add(ev.getEventTime(), TouchRecording.UP, id, x, y);
                 onTouchUp(id,x,y);
             } else {
                 return false;
             }
-            if(action != null) {
-                Log.d(TAG, "touch " + action + " " + id + " " + x+ " " + y);
+            if(DEBUG) {
+                Log.d(TAG, "touch " + a + " " + id + " " + x+ " " + y);
             }
         }
 
         return true;
     }
     // no MyVerySpecialAbstractTouchGestureListenerInterface for you...
-    abstract void onTouchDown(int id, float x, float y);
-    abstract void onTouchMove(int id, float x, float y);
-    abstract void onTouchUp(int id, float x, float y);
+    private void move(long time, int id, float x, float y) {
+        if(mRecording != null) 
+            mRecording.add(time, TouchRecording.MOVE, id, x, y);
+        onTouchMove(id,x,y);
+    }
+
+    void setRecording(TouchRecording recording) {
+        mRecording = recording;
+    }
+
+    public abstract void onTouchDown(int id, float x, float y);
+    public abstract void onTouchMove(int id, float x, float y);
+    public abstract void onTouchUp(int id, float x, float y);
+
+    public void onTouchCancel() {
+        onTouchUp(0,-1f,-1f);
+    }
 }
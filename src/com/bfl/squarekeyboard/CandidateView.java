@@ -0,0 +1,114 @@
+package com.bfl.squarekeyboard;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.*;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Strip above the keyboard showing the WordPredictor candidates in equal
+ * columns, best one in the middle. Tapping one picks it.
+ */
+public class CandidateView extends View {
+    private KeyboardService mService;
+    private WordPredictor mPredictor;
+    // candidate shown in each column, -1 if none
+    private final int[] mColumn = new int[KeyboardService.MAX_CANDIDATES];
+    private int mPressed = -1;
+
+    private final Paint mPaint, mBestPaint, mPressedPaint, mBackgroundPaint;
+    private final int mHeight;
+    private final float mTextOffset;
+
+    public CandidateView(Context context) {
+        super(context);
+        Resources res = context.getResources();
+        mPaint = new Paint();
+        mPaint.setAntiAlias(true);
+        mPaint.setTextAlign(Paint.Align.CENTER);
+        mPaint.setTextSize(res.getDimensionPixelSize(R.dimen.candidate_font_height));
+        mPaint.setColor(res.getColor(R.color.candidate_normal));
+        mBestPaint = new Paint(mPaint);
+        mBestPaint.setColor(res.getColor(R.color.candidate_recommended));
+        mBestPaint.setFakeBoldText(true);
+        mPressedPaint = new Paint();
+        mPressedPaint.setColor(res.getColor(R.color.candidate_other));
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(res.getColor(R.color.candidate_background));
+        int pad = res.getDimensionPixelSize(R.dimen.candidate_vertical_padding);
+        mHeight = (int) (mPaint.descent() - mPaint.ascent()) + 2*pad;
+        mTextOffset = -(mPaint.ascent()+mPaint.descent())/2;
+    }
+
+    public void setService(KeyboardService service) {
+        mService = service;
+    }
+
+    /** Shows the current candidates of predictor, null for none. */
+    public void update(WordPredictor predictor) {
+        mPredictor = predictor;
+        int n = predictor == null ? 0 : predictor.getCandidateCount();
+        int cols = mColumn.length;
+        // 0 in the middle, then alternating left and right of it
+        for(int c = 0; c < cols; c++)
+            mColumn[c] = -1;
+        for(int i = 0; i < n; i++) {
+            int c = cols/2 + ((i & 1) == 0 ? i/2 : -(i+1)/2);
+            mColumn[c] = i;
+        }
+        mPressed = -1;
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), mHeight);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int w = getWidth(), h = getHeight();
+        canvas.drawRect(0, 0, w, h, mBackgroundPaint);
+        if(mPredictor == null)
+            return;
+        float colWidth = (float) w / mColumn.length;
+        for(int c = 0; c < mColumn.length; c++) {
+            int i = mColumn[c];
+            if(i < 0 || i >= mPredictor.getCandidateCount())
+                continue;
+            float x0 = c*colWidth;
+            if(c == mPressed)
+                canvas.drawRect(x0, 0, x0+colWidth, h, mPressedPaint);
+            canvas.drawText(mPredictor.getCandidate(i), x0 + colWidth/2, h/2 + mTextOffset,
+                    i == 0 ? mBestPaint : mPaint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent me) {
+        int w = getWidth();
+        int c = w <= 0 ? -1 : (int) (me.getX() * mColumn.length / w);
+        if(c < 0 || c >= mColumn.length || mColumn[c] < 0)
+            c = -1;
+        switch(me.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                if(c != mPressed) {
+                    mPressed = c;
+                    invalidate();
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                mPressed = -1;
+                invalidate();
+                if(c >= 0 && mService != null)
+                    mService.pickCandidate(mColumn[c]);
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                mPressed = -1;
+                invalidate();
+                break;
+        }
+        return true;
+    }
+}
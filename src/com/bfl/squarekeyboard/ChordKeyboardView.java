@@ -14,24 +14,23 @@ import android.graphics.drawable.Drawable;
 import android.util.Log;
 import android.util.TypedValue;
 import android.content.res.Resources;
-import java.util.*;
 
-public class ChordKeyboardView extends BaseKeyboardView {
+public class ChordKeyboardView extends BaseKeyboardView
+        implements ChordTracker.Callback {
 
     private final String TAG = "SquareKeyboardView";
     SquareKeyboard mKeyboard;
     int mRows, mCols;
-    int mRowHeight, mColWidth;
+    int mColWidth;
     int mLineThickness = 1;
 
     int mMidPaneX, mRightPaneX;
-    private final int BOXES =2;
+    private final int BOXES = ChordTracker.BOXES;
 
-    // move this to ChordKeyboard when implemented 
-    SquareKeyboard.ActionListener mListener;
-
-    
-    Map<Integer,Sequence> mTouchSequences = new HashMap<Integer,Sequence>();
+    // pointers down and the keys they touched; what chords type comes
+    // from the layout file, through mKeyboard
+    ChordTracker mTracker;
+    Chord mChord;
 
     public ChordKeyboardView(Context context) {
         super(context);
@@ -49,20 +48,18 @@ public class ChordKeyboardView extends BaseKeyboardView {
     }
     
     private void construct() {
-        mRows = 2;
-        mCols = 5;
+        mRows = ChordTracker.ROWS;
+        mCols = ChordTracker.COLS;
         mRowHeight = 50;
         mColWidth = 50;
-    }
-
-    void setListener_Temporary(SquareKeyboard.ActionListener l) {
-        this.mListener = l;
+        mTracker = new ChordTracker(mRowHeight, mColWidth, mLineThickness);
+        mTracker.setCallback(this);
+        mChord = mTracker.getChord();
     }
 
     void setKeyboard(SquareKeyboard keyboard) {
         mKeyboard = keyboard;
-        mRows = 2;
-        mCols = 5;
+        mTracker.setKeyboard(keyboard);
         // size of keyboard might have changed
         requestLayout(); 
     }
@@ -77,35 +74,16 @@ public class ChordKeyboardView extends BaseKeyboardView {
     @Override
     public void updateSize() {
         super.updateSize();
-        mMidPaneX = mCols*mColWidth+mLineThickness;
-        mRightPaneX = mWidth - mMidPaneX;
-    }
-
-    private int indexToId(int box, int i, int j) {
-        return mRows*(mCols*box+j)+i; // C order: key[box][[col][row]
-    }
-
-    private int posToId(float x,float y) {
-        if( x <= 1 || x >= mWidth -1 ) return -1;
-        if( y <= 1 || y >= mWidth -1 ) return -1;
-        int i = (int) y/ mRowHeight;
-        int box;
-        if( x < mMidPaneX) {
-            box = 0;
-        } else if(x >= mRightPaneX) {
-            box = 1;
-            x -= mRightPaneX;
-        } else {
-            // return midPaneId(x,y);
-            return -2;
-        }
-        int j = (int) (x / mColWidth);
-        return indexToId(box,i,j);
+        mTracker.setWidth(mWidth);
+        mMidPaneX = mTracker.getMidPaneX();
+        mRightPaneX = mTracker.getRightPaneX();
     }
 
 
     @Override
     public void onDraw(Canvas c) {
+        long start = System.nanoTime();
+        InputStats.beginSection("ChordKeyboardView.onDraw");
         c.drawRect(0, 0, mWidth, mHeight, mBorderPaint);
         //drawGrid(c);
         for(int box =0; box < BOXES; box++) {
@@ -115,11 +93,15 @@ public class ChordKeyboardView extends BaseKeyboardView {
                }
             }
         }
+        drawPreview(c);
+        InputStats.endSection();
+        InputStats.sDraw.recordSince(start);
     }
 
     private void drawKey(Canvas c, int box, int i, int j) {
         // intervals inclusive [x0, x1]
-        String label = String.valueOf(keyName(indexToId(box,i,j)));
+        int id = ChordTracker.indexToId(box,i,j);
+        String label = Chord.keyLabel(id);
         String altlabel = "";
         int boxX = (box == 1) ? mRightPaneX : 0;
         float x0 = boxX+j*mColWidth+mLineThickness;
@@ -128,82 +110,77 @@ public class ChordKeyboardView extends BaseKeyboardView {
         float y1 = (i+1)*mRowHeight;//-mLineThickness ;
         x1 = Math.min(x1,mWidth-mLineThickness);
         Paint p;
+        if((mChord.getActive() & (1 << id)) != 0) {
+            p = mActivePaint;
+        } else if((mChord.getHovered() & (1 << id)) != 0) {
+            p = mLatchedPaint;
+        } else {
             p = mBackgroundPaint;
+        }
 
         drawKey(c,x0,x1,y0,y1,label,altlabel,p);
     }
 
 
-    @Override
-    void onTouchDown(int ptrId, float x, float y) {
-        int key = posToId(x,y);
-        mTouchSequences.put(ptrId, new Sequence(key));
-        onTouchMove(ptrId, x, y);
+    // only keys whose highlight changed are redrawn
+    public void onKeysChanged(int keys) {
+        for(; keys != 0; keys &= keys-1)
+            invalidateKey(Integer.numberOfTrailingZeros(keys));
     }
 
+    // invalidates just the rectangle of key id, see indexToId()
+    private void invalidateKey(int id) {
+        int box = id / (mRows*mCols);
+        int j = id / mRows % mCols, i = id % mRows;
+        int x = ((box == 1) ? mRightPaneX : 0) + j*mColWidth;
+        invalidate(x, i*mRowHeight, x+mColWidth+mLineThickness, (i+1)*mRowHeight+mLineThickness);
+    }
 
-    @Override
-    void onTouchMove(int ptrId,float x, float y) {
-        int key = posToId(x,y);
-        Sequence seq = mTouchSequences.get(ptrId);
-        if(seq == null) 
-            return;
-        seq.curKey = key;
-        invalidate();
-        showPreview(describeChord(),0,mWidth/2,mHeight/2);
+    public void onChordChanged() {
+        updatePreview();
     }
 
     @Override
-    void onTouchUp(int ptrId,float x, float y) {
-        int id = posToId(x,y);
-        Sequence seq = mTouchSequences.get(ptrId);
-        if(seq == null) 
-            return;
-        mListener.onText("#"+describeChord()+"\n");
-        mTouchSequences.remove(ptrId);
-        showPreview(describeChord(),0,mWidth/2,mHeight/2);
-    }
-
-
-    private static class Sequence {
-        int startKey;
-        int curKey;
-        boolean dead;
-        Sequence(int k) {
-            curKey = startKey = k;
-        }
+    public void onTouchDown(int ptrId, float x, float y) {
+        mTracker.onTouchDown(ptrId, x, y);
     }
 
-    String describeChord() {
-        SortedSet<Integer> starts = new TreeSet<Integer>();
-        SortedSet<Integer> hovers = new TreeSet<Integer>();
-        for(Sequence s : mTouchSequences.values()) {
-            if(s.startKey >= 0) {
-                starts.add(s.startKey);
-            }
-            if(s.curKey >= 0) {
-                hovers.add(s.curKey);
-            }
-        }
-        hovers.removeAll(starts);
-        StringBuilder desc = new StringBuilder();
-        for(int s: starts) {
-            desc.append(keyName(s));
-        }
-        if(!hovers.isEmpty()) {
-            desc.append("/");
-            for(int h: hovers) {
-                desc.append(keyName(h));
-            }
-        }
-        return desc.toString();
+    @Override
+    public void onTouchMove(int ptrId,float x, float y) {
+        mTracker.onTouchMove(ptrId, x, y);
     }
 
-    char keyName(int keyId) {
-        return (char)('a' + keyId);
+    @Override
+    public void onTouchUp(int ptrId,float x, float y) {
+        long start = System.nanoTime();
+        mTracker.onTouchUp(ptrId, x, y);
+        InputStats.sKeyPress.recordSince(start);
     }
 
-
-
+    @Override
+    public void onTouchCancel() {
+        mTracker.onTouchCancel();
+    }
+
+    // what the chord so far would type, nothing if it types nothing
+    private void updatePreview() {
+        long start = System.nanoTime();
+        String label = null;
+        int chord = mChord.getChord();
+        if(mChord.inProgress() && mKeyboard != null) 
+            label = mKeyboard.getChordLabel(chord);
+        if(mInlinePreview) {
+            // widths were measured when the layout was compiled
+            if(label == null) 
+                hidePreview();
+            else
+                showInlinePreview(label,0,mKeyboard.getChordLabelWidth(chord),
+                        mWidth/2,(mHeight+mPreviewHeight)/2);
+        } else if(label != null) {
+            showPreview(label,0,mWidth/2,mHeight/2);
+        } else {
+            hidePreview();
+        }
+        InputStats.sPreview.recordSince(start);
+    }
 }
-
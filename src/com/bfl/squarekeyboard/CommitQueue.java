@@ -0,0 +1,152 @@
+package com.bfl.squarekeyboard;
+import android.inputmethodservice.InputMethodService;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+import android.view.inputmethod.InputConnection;
+
+/**
+ * Sends text and key events to the current editor. While the editor is
+ * quick, text is committed at once. When a commit blocks the UI thread,
+ * text typed right after it is held back for up to twice as long (at
+ * most MAX_WINDOW ms) and then committed as one batch edit, so a slow
+ * editor gets one call per burst instead of one per key. Everything
+ * else sent to the editor goes through here too and flushes pending
+ * text first, keeping everything in typing order.
+ */
+final class CommitQueue {
+    // longest time text is held back, ms
+    static final long MAX_WINDOW = 50;
+
+    private final InputMethodService mService;
+    private final Handler mHandler;
+    private final StringBuilder mPending = new StringBuilder(64);
+    // commits in mPending and nanoTime the first of them arrived
+    private int mPendingCommits;
+    private long mPendingSince;
+    // uptime the last flush ended and how long to coalesce after it, ms
+    private long mLastFlushEnd;
+    private long mWindow;
+    private boolean mScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        public void run() {
+            mScheduled = false;
+            flush();
+        }
+    };
+
+    CommitQueue(InputMethodService service, Handler handler) {
+        mService = service;
+        mHandler = handler;
+    }
+
+    void commitText(CharSequence text) {
+        if(mPendingCommits == 0)
+            mPendingSince = System.nanoTime();
+        mPending.append(text);
+        mPendingCommits++;
+        long due = mLastFlushEnd + mWindow;
+        if(SystemClock.uptimeMillis() >= due) {
+            flush();
+        } else if(!mScheduled) {
+            mScheduled = true;
+            mHandler.postAtTime(mFlush, due);
+        }
+    }
+
+    void sendKey(KeyEvent down, KeyEvent up) {
+        flush();
+        InputConnection ic = mService.getCurrentInputConnection();
+        if(ic == null) return;
+        InputStats.beginSection("CommitQueue.sendKey");
+        ic.sendKeyEvent(down);
+        ic.sendKeyEvent(up);
+        InputStats.endSection();
+        InputStats.committed();
+    }
+
+    /** Deletes before chars left of the cursor and commits text there. */
+    void replaceBefore(int before, CharSequence text) {
+        InputConnection ic = beginBatch();
+        if(ic == null) return;
+        ic.deleteSurroundingText(before, 0);
+        ic.commitText(text, 1);
+        ic.endBatchEdit();
+    }
+
+    /**
+     * Starts a batch edit holding pending text and whatever the caller
+     * sends next, in that order, and returns the connection to send it
+     * to. Returns null if there is no editor. End it with endBatchEdit().
+     */
+    InputConnection beginBatch() {
+        InputConnection ic = mService.getCurrentInputConnection();
+        if(ic == null) {
+            flush();
+            return null;
+        }
+        ic.beginBatchEdit();
+        flush();
+        return ic;
+    }
+
+    /**
+     * The user or the app moved the selection from oldStart,oldEnd to
+     * newStart,newEnd, not our commits. Pending text was typed before
+     * that, so it is committed at the old selection and the new one is
+     * moved along with the text after it; it is never dropped, nor
+     * committed at the new cursor. Call before reading the editor.
+     */
+    void flushMoved(int oldStart, int oldEnd, int newStart, int newEnd) {
+        InputConnection ic = mService.getCurrentInputConnection();
+        if(mPendingCommits == 0 || ic == null || oldStart < 0) {
+            flush();
+            return;
+        }
+        int len = mPending.length();
+        ic.beginBatchEdit();
+        ic.setSelection(oldStart, oldEnd);
+        flush();
+        ic.setSelection(shifted(newStart, oldStart, oldEnd, len),
+                shifted(newEnd, oldStart, oldEnd, len));
+        ic.endBatchEdit();
+    }
+
+    // where pos is after start..end is replaced by len chars
+    private static int shifted(int pos, int start, int end, int len) {
+        if(pos >= end)
+            return pos + len - (end - start);
+        return pos > start ? start + len : pos;
+    }
+
+    /** Commits pending text now. Text for a closed editor is dropped. */
+    void flush() {
+        if(mScheduled) {
+            mHandler.removeCallbacks(mFlush);
+            mScheduled = false;
+        }
+        if(mPendingCommits == 0)
+            return;
+        InputConnection ic = mService.getCurrentInputConnection();
+        long start = System.nanoTime();
+        if(ic != null) {
+            InputStats.beginSection("CommitQueue.flush");
+            ic.beginBatchEdit();
+            // a copy, the editor may keep what it is given
+            ic.commitText(mPending.toString(), 1);
+            ic.endBatchEdit();
+            InputStats.endSection();
+        }
+        long end = System.nanoTime();
+        InputStats.sBatchSize.record(mPendingCommits);
+        InputStats.sFlushWait.record((start - mPendingSince) / 1000);
+        InputStats.sFlush.record((end - start) / 1000);
+        mWindow = Math.min(MAX_WINDOW, (end - start) * 2 / 1000000);
+        mLastFlushEnd = SystemClock.uptimeMillis();
+        mPending.setLength(0);
+        mPendingCommits = 0;
+        if(ic != null)
+            InputStats.committed();
+    }
+}
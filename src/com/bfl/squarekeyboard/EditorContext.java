@@ -0,0 +1,179 @@
+package com.bfl.squarekeyboard;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+
+/**
+ * Local copy of the text just before the cursor, so per key decisions
+ * need no binder call into the editor. Read from the editor when input
+ * starts, then kept up to date from our own commits. onUpdateSelection
+ * reports that match what our commits should have done are ignored;
+ * any other selection change means the user or the app moved things,
+ * and the copy is read again the next time it is needed.
+ */
+final class EditorContext {
+    // chars kept before the cursor
+    static final int SIZE = 64;
+    // cursor positions our commits lead to, not yet reported back
+    private static final int EXPECTED = 16;
+
+    private final StringBuilder mBefore = new StringBuilder(2*SIZE);
+    private boolean mStale = true;
+    // selection as last known, -1 if unknown
+    private int mSelStart = -1, mSelEnd = -1;
+    private final int[] mExpected = new int[EXPECTED];
+    private int mExpectedCount;
+
+    // binder calls made, reads answered locally, re-reads forced by
+    // outside selection changes
+    private long mIpcCalls, mLocalReads, mResyncs;
+
+    /** A new editor; reads its text right away. */
+    void start(InputConnection ic, EditorInfo attr) {
+        mSelStart = attr.initialSelStart;
+        mSelEnd = attr.initialSelEnd;
+        mExpectedCount = 0;
+        mStale = true;
+        sync(ic);
+    }
+
+    void finish() {
+        mStale = true;
+        mSelStart = mSelEnd = -1;
+        mExpectedCount = 0;
+    }
+
+    private void sync(InputConnection ic) {
+        if(!mStale || ic == null)
+            return;
+        mIpcCalls++;
+        CharSequence before = ic.getTextBeforeCursor(SIZE, 0);
+        mBefore.setLength(0);
+        if(before != null)
+            mBefore.append(before);
+        mStale = false;
+    }
+
+    private void trim() {
+        // in steps of SIZE, not on every commit
+        int extra = mBefore.length() - SIZE;
+        if(extra > SIZE)
+            mBefore.delete(0, extra);
+    }
+
+    private void expect(int pos) {
+        if(pos < 0)
+            return;
+        if(mExpectedCount == EXPECTED) {
+            System.arraycopy(mExpected, 1, mExpected, 0, EXPECTED-1);
+            mExpectedCount--;
+        }
+        mExpected[mExpectedCount++] = pos;
+    }
+
+    /** text replaced the selection. */
+    void onCommit(CharSequence text) {
+        if(!mStale) {
+            mBefore.append(text);
+            trim();
+        }
+        if(mSelStart >= 0) {
+            mSelStart = mSelEnd = mSelStart + text.length();
+            expect(mSelStart);
+        }
+    }
+
+    /** before chars left of the cursor were deleted. */
+    void onDelete(int before) {
+        if(mSelStart != mSelEnd) {
+            // a backspace deletes the selection, not what is before it
+            if(mSelStart >= 0) {
+                mSelEnd = mSelStart;
+                expect(mSelStart);
+            }
+            return;
+        }
+        if(!mStale) {
+            if(mBefore.length() >= before) {
+                mBefore.setLength(mBefore.length() - before);
+            } else {
+                mStale = true;
+            }
+        }
+        if(mSelStart >= 0) {
+            mSelStart = mSelEnd = Math.max(0, mSelStart - before);
+            expect(mSelStart);
+        }
+    }
+
+    /** The cursor was moved by chars, negative to the left. */
+    void onMove(int chars) {
+        if(mSelStart != mSelEnd || mSelStart < 0) {
+            invalidate();
+            return;
+        }
+        if(!mStale) {
+            // the text before the cursor is only known going left
+            if(chars <= 0 && mBefore.length() >= -chars) {
+                mBefore.setLength(mBefore.length() + chars);
+            } else {
+                mStale = true;
+            }
+        }
+        mSelStart = mSelEnd = Math.max(0, mSelStart + chars);
+        expect(mSelStart);
+    }
+
+    /** Where the cursor is, -1 if unknown or there is a selection. */
+    int getCursor() {
+        return mSelStart == mSelEnd ? mSelStart : -1;
+    }
+
+    /** Some key was sent whose effect on the text we do not know. */
+    void invalidate() {
+        mStale = true;
+        mSelStart = mSelEnd = -1;
+        mExpectedCount = 0;
+    }
+
+    /**
+     * The editor's selection changed. Returns false if this was not the
+     * result of our own commits, in which case the copy is stale now.
+     */
+    boolean onUpdateSelection(int newSelStart, int newSelEnd) {
+        if(newSelStart == newSelEnd) {
+            for(int i = 0; i < mExpectedCount; i++) {
+                if(mExpected[i] != newSelStart)
+                    continue;
+                // reports come in order, earlier ones are done with
+                mExpectedCount -= i+1;
+                System.arraycopy(mExpected, i+1, mExpected, 0, mExpectedCount);
+                return true;
+            }
+        }
+        boolean moved = newSelStart != mSelStart || newSelEnd != mSelEnd;
+        mSelStart = newSelStart;
+        mSelEnd = newSelEnd;
+        if(!moved)
+            return true;
+        mExpectedCount = 0;
+        if(!mStale)
+            mResyncs++;
+        mStale = true;
+        return false;
+    }
+
+    /** The text before the cursor, at most SIZE chars of it. */
+    CharSequence getTextBefore(InputConnection ic) {
+        if(mStale) {
+            sync(ic);
+        } else {
+            mLocalReads++;
+        }
+        return mBefore;
+    }
+
+    String dump() {
+        return "editor context: " + mIpcCalls + " reads from editor, "
+            + mLocalReads + " local, " + mResyncs + " re-reads";
+    }
+}
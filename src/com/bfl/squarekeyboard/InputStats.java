@@ -0,0 +1,126 @@
+package com.bfl.squarekeyboard;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.view.MotionEvent;
+import java.io.PrintWriter;
+
+/**
+ * Input latency and frame time statistics, shown by
+ * "adb shell dumpsys input_method" (add "reset" to clear them).
+ * Everything is recorded on the UI thread without allocating.
+ */
+final class InputStats {
+    // from the MotionEvent of the releasing touch until the text or key
+    // event went to the InputConnection
+    static final LatencyHistogram sTouchToCommit = new LatencyHistogram("touch to commit");
+    // handling a touch up, including the key press and the commit
+    static final LatencyHistogram sKeyPress = new LatencyHistogram("key press");
+    static final LatencyHistogram sDraw = new LatencyHistogram("draw");
+    static final LatencyHistogram sPreview = new LatencyHistogram("preview update");
+    // CommitQueue: commits per batch, how long the first of them waited
+    // and how long the editor took
+    static final LatencyHistogram sBatchSize = new LatencyHistogram("commit batch size", "");
+    static final LatencyHistogram sFlushWait = new LatencyHistogram("commit wait");
+    static final LatencyHistogram sFlush = new LatencyHistogram("commit flush");
+    // WordPredictor update for a typed char
+    static final LatencyHistogram sPredict = new LatencyHistogram("prediction");
+    // the SpatialCorrector part of it, budget 1ms
+    static final LatencyHistogram sCorrect = new LatencyHistogram("correction");
+
+    private static final LatencyHistogram[] sAll = {
+        sTouchToCommit, sKeyPress, sDraw, sPreview, sBatchSize, sFlushWait, sFlush,
+        sPredict, sCorrect
+    };
+
+    // Trace sections need API 18
+    private static final boolean TRACE =
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    // nanoTime the last touch up not yet committed was handled, -1 if
+    // none, and how long its MotionEvent took to get to us in us
+    private static long sTouchNanos = -1;
+    private static long sTouchDelay;
+
+    // ring of the last touch downs and ups, instead of logging each one
+    private static final int TOUCH_LOG = 64;
+    private static final long[] sLogTime = new long[TOUCH_LOG];
+    private static final int[] sLogAction = new int[TOUCH_LOG];
+    private static final int[] sLogId = new int[TOUCH_LOG];
+    private static final float[] sLogX = new float[TOUCH_LOG];
+    private static final float[] sLogY = new float[TOUCH_LOG];
+    private static long sLogCount;
+
+    private InputStats() {
+    }
+
+    /**
+     * A touch that may commit something ended at eventTime (uptime ms)
+     * and is being handled now.
+     */
+    static void touchUp(long eventTime) {
+        sTouchNanos = System.nanoTime();
+        // only ms resolution, but the same for every build; what we do
+        // after is measured in ns
+        sTouchDelay = Math.max(0, SystemClock.uptimeMillis() - eventTime) * 1000;
+    }
+
+    /** Something was sent to the editor. */
+    static void committed() {
+        if(sTouchNanos < 0)
+            return;
+        sTouchToCommit.record(sTouchDelay + (System.nanoTime() - sTouchNanos) / 1000);
+        sTouchNanos = -1;
+    }
+
+    /** Remembers a touch event, action is MotionEvent.getActionMasked(). */
+    static void logTouch(long eventTime, int action, int id, float x, float y) {
+        int k = (int) (sLogCount % TOUCH_LOG);
+        sLogTime[k] = eventTime;
+        sLogAction[k] = action;
+        sLogId[k] = id;
+        sLogX[k] = x;
+        sLogY[k] = y;
+        sLogCount++;
+    }
+
+    private static String actionName(int action) {
+        switch(action) {
+            case MotionEvent.ACTION_DOWN: return "DOWN";
+            case MotionEvent.ACTION_UP: return "UP";
+            case MotionEvent.ACTION_CANCEL: return "CANCEL";
+            case MotionEvent.ACTION_OUTSIDE: return "OUTSIDE";
+            case MotionEvent.ACTION_POINTER_DOWN: return "PTR_DOWN";
+            case MotionEvent.ACTION_POINTER_UP: return "PTR_UP";
+            default: return String.valueOf(action);
+        }
+    }
+
+    static void beginSection(String name) {
+        if(TRACE)
+            Trace.beginSection(name);
+    }
+
+    static void endSection() {
+        if(TRACE)
+            Trace.endSection();
+    }
+
+    static void reset() {
+        for(LatencyHistogram h : sAll)
+            h.reset();
+    }
+
+    static void dump(PrintWriter pw) {
+        pw.println("SquareKeyboard input stats:");
+        for(LatencyHistogram h : sAll)
+            h.dump(pw, "  ");
+        pw.println("  last touches:");
+        long first = Math.max(0, sLogCount - TOUCH_LOG);
+        for(long n = first; n < sLogCount; n++) {
+            int k = (int) (n % TOUCH_LOG);
+            pw.println("    " + sLogTime[k] + " " + actionName(sLogAction[k])
+                    + " " + sLogId[k] + " " + sLogX[k] + " " + sLogY[k]);
+        }
+    }
+}
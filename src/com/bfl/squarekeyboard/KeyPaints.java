@@ -0,0 +1,91 @@
+package com.bfl.squarekeyboard;
+import android.graphics.Paint;
+
+/**
+ * The paints keyboard views draw with, made once and shared by all of
+ * them. Never changed after construction.
+ */
+final class KeyPaints {
+    private static KeyPaints sInstance;
+
+    final Paint text, altText, smallText;
+    final Paint background, active, latched, border;
+    // inline preview box, and its text by BaseKeyboardView size class
+    final Paint preview, previewBorder, previewSwipedBorder;
+    final Paint[] previewText;
+    final float[] previewTextOffset;
+
+    /** Must be called on the UI thread. */
+    static KeyPaints get() {
+        if(sInstance == null)
+            sInstance = new KeyPaints();
+        return sInstance;
+    }
+
+    private KeyPaints() {
+        text = new Paint();
+        text.setAntiAlias(true);
+        //text.setTypeface(Typeface.MONOSPACE);
+        text.setTextSize(15);
+        text.setTextAlign(Paint.Align.CENTER);
+        text.setARGB(255,255,255,255);
+        altText = new Paint(text);
+        altText.setARGB(255,128,128,128);
+        smallText = new Paint(text);
+        smallText.setTextSize(13);
+
+        // xmlify this
+        background = new Paint();
+        background.setARGB(255,16,16,16);
+        active = new Paint();
+        active.setARGB(255,16,130,200);
+        latched = new Paint();
+        latched.setARGB(255,70,160,00);
+        border = new Paint();
+        border.setARGB(255,0,130,180);
+
+        // same look as the popup drawables
+        preview = new Paint();
+        preview.setARGB(255,0x22,0x22,0x22);
+        previewBorder = new Paint();
+        previewBorder.setARGB(255,0xff,0x11,0x00);
+        previewSwipedBorder = new Paint();
+        previewSwipedBorder.setARGB(255,0xff,0xff,0x00);
+        int[] sizes = { 14, 17, 21 };
+        previewText = new Paint[sizes.length];
+        previewTextOffset = new float[sizes.length];
+        for(int i = 0; i < sizes.length; i++) {
+            Paint p = new Paint(text);
+            p.setTextSize(sizes[i]);
+            p.setFakeBoldText(true);
+            previewText[i] = p;
+            previewTextOffset[i] = -(p.ascent()+p.descent())/2;
+        }
+    }
+
+    // previewText index for a label, longer labels get smaller text
+    static int previewSizeClass(String label) {
+        if(label.length() >= 4) {
+            return 0;
+        } else if(label.length() >= 2) {
+            return 1;
+        } else {
+            return 2;
+        }
+    }
+
+    /**
+     * Measures labels as the inline preview draws them, with paints of
+     * its own so layouts can be compiled off the UI thread.
+     */
+    ChordMap.TextMeasure newPreviewMeasure() {
+        final Paint[] paints = new Paint[previewText.length];
+        for(int i = 0; i < paints.length; i++)
+            paints[i] = new Paint(previewText[i]);
+        return new ChordMap.TextMeasure() {
+            public synchronized float measure(String label) {
+                return paints[previewSizeClass(label)].measureText(label);
+            }
+        };
+    }
+}
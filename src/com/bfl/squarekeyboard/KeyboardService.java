@@ -3,11 +3,16 @@ package com.bfl.squarekeyboard;
 import android.inputmethodservice.InputMethodService;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.KeyboardView;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.text.method.MetaKeyKeyListener;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.inputmethod.CompletionInfo;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
@@ -15,16 +20,54 @@ import android.view.inputmethod.InputMethodManager;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 // FIXME: subclass this maybe?
 public class KeyboardService extends InputMethodService 
         implements SquareKeyboard.ActionListener {
     static final boolean DEBUG = false;
+    private static final String TAG = "KeyboardService";
+    static final String LAYOUT_FILE = "/sdcard/layout.txt";
     
     boolean mChorded = false;
     
     private SquareKeyboard mKeyboard;
+    private final ExecutorService mLoader = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler();
+    private final CommitQueue mCommits = new CommitQueue(this, mHandler);
+    private final EditorContext mEditor = new EditorContext();
+    private LayoutObserver mLayoutObserver;
+    // the view shown, one of the two below. Both are made once and kept,
+    // changeMode() and configuration changes only swap them in.
     private BaseKeyboardView mView;
+    private SquareKeyboardView mSquareView;
+    private ChordKeyboardView mChordView;
+    // touches being recorded, started and stopped from dump()
+    private TouchRecording mRecording;
+    static final String RECORDING_FILE = "touches.rec";
+
+    // built with TrieDictionary from a word list, see there
+    static final String DICTIONARY_FILE = "/sdcard/dictionary.dict";
+    static final int MAX_CANDIDATES = 3;
+    private final WordPredictor mPredictor = new WordPredictor(MAX_CANDIDATES);
+    private CandidateView mCandidateView;
+    private SpatialCorrector mCorrector;
+    private boolean mPredictionOn;
+
+    // personal n-grams, learned and saved on the loader thread only;
+    // null until loaded
+    private NgramStore mNgramStore;
+    static final String NGRAM_NAME = "personal";
+    static final int NGRAM_WORDS = 8192;
+    static final int NGRAM_ENTRIES = 32768;
+    // longest wait in onDestroy() for queued learning to be saved, ms
+    static final long SHUTDOWN_WAIT = 500;
+    // false for passwords, nothing typed there is learned
+    private boolean mLearning;
+    // committed text not yet handed to the loader thread
+    private final StringBuilder mLearnText = new StringBuilder();
     
     private String mWordSeparators;
     
@@ -34,10 +77,216 @@ public class KeyboardService extends InputMethodService
      */
     @Override public void onCreate() {
         super.onCreate();
+        CoreLog.setSink(new CoreLog.Sink() {
+            public void log(int priority, String tag, String msg, Throwable tr) {
+                if(tr != null)
+                    msg += '\n' + Log.getStackTraceString(tr);
+                Log.println(priority, tag, msg);
+            }
+        });
         mWordSeparators = getResources().getString(R.string.word_separators);
-        if( new File("/sdcard/layout.txt").exists()) {
-            mKeyboard = new SquareKeyboard(this);
-            mKeyboard.loadFile("/sdcard/layout.txt");
+        mKeyboard = loadDefaultKeyboard();
+        mLayoutObserver = new LayoutObserver();
+        mLayoutObserver.startWatching();
+        reloadAsync();
+        loadDictionaryAsync();
+        loadNgramsAsync();
+    }
+
+    @Override public void onDestroy() {
+        mLayoutObserver.stopWatching();
+        mHandler.removeCallbacks(mReload);
+        // learn and log what was typed last, then close the log, all
+        // after what is already queued
+        if(mLearning)
+            learnAsync(true);
+        mLoader.execute(new Runnable() {
+            public void run() {
+                if(mNgramStore == null)
+                    return;
+                try {
+                    mNgramStore.close();
+                } catch(IOException e) {
+                    Log.w(TAG, "could not close n-gram log", e);
+                }
+            }
+        });
+        mLoader.shutdown();
+        try {
+            if(!mLoader.awaitTermination(SHUTDOWN_WAIT, TimeUnit.MILLISECONDS))
+                Log.w(TAG, "loader still busy after " + SHUTDOWN_WAIT + " ms");
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * The bundled layout, small enough to parse on the main thread so the
+     * keyboard is usable before layout.txt has been read.
+     */
+    private SquareKeyboard loadDefaultKeyboard() {
+        SquareKeyboard kb = new SquareKeyboard(this);
+        kb.setPreviewMeasure(KeyPaints.get().newPreviewMeasure());
+        try {
+            Reader r = new InputStreamReader(
+                    getResources().openRawResource(R.raw.default_layout), "UTF-8");
+            try {
+                kb.load(r);
+            } finally {
+                r.close();
+            }
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+        return kb;
+    }
+
+    /**
+     * Parses LAYOUT_FILE on the loader thread, reusing the unchanged
+     * blocks of the current layouts. The result is only handed to the
+     * main thread once fully built, so a partially parsed keyboard is
+     * never visible.
+     */
+    private void reloadAsync() {
+        final File snapshot = new File(getFilesDir(), "layout.bin");
+        final SquareKeyboard kb = mKeyboard;
+        final long requested = mReloadRequested;
+        mLoader.execute(new Runnable() {
+            public void run() {
+                if(!new File(LAYOUT_FILE).exists())
+                    return;
+                final SquareKeyboard.LayoutSet set;
+                try {
+                    set = kb.loadSet(LAYOUT_FILE, snapshot, kb.mLayoutSet);
+                } catch(RuntimeException e) {
+                    Log.w(TAG, "could not load " + LAYOUT_FILE, e);
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        long start = System.nanoTime();
+                        kb.install(set);
+                        if(mSquareView != null) {
+                            mSquareView.setKeyboard(kb);
+                        }
+                        if(mChordView != null) {
+                            mChordView.setKeyboard(kb);
+                        }
+                        long installNanos = System.nanoTime() - start;
+                        if(requested != 0) {
+                            Log.i(TAG, "reloaded " + LAYOUT_FILE + ": latency "
+                                    + (SystemClock.uptimeMillis() - requested) + " ms, parse "
+                                    + set.loadNanos/1000 + " us (" + set.blocksParsed
+                                    + " blocks parsed, " + set.blocksReused + " reused), install "
+                                    + installNanos/1000 + " us on UI thread");
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void loadDictionaryAsync() {
+        mLoader.execute(new Runnable() {
+            public void run() {
+                File file = new File(DICTIONARY_FILE);
+                if(!file.exists())
+                    return;
+                final TrieDictionary dict;
+                try {
+                    dict = TrieDictionary.open(file);
+                } catch(IOException e) {
+                    Log.w(TAG, "could not load " + DICTIONARY_FILE, e);
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        mPredictor.setDictionary(dict);
+                        mCorrector = new SpatialCorrector(dict, mKeyboard);
+                        mCorrector.setStats(InputStats.sCorrect);
+                        mPredictor.setCorrector(mCorrector);
+                        Log.i(TAG, "dictionary: " + dict.getWordCount() + " words");
+                    }
+                });
+            }
+        });
+    }
+
+    private void loadNgramsAsync() {
+        final File dir = getFilesDir();
+        mLoader.execute(new Runnable() {
+            public void run() {
+                NgramStore store = new NgramStore(
+                        new NgramModel(NGRAM_WORDS, NGRAM_ENTRIES), dir, NGRAM_NAME);
+                try {
+                    store.load();
+                } catch(IOException e) {
+                    // nothing is learned until the next start: a fresh
+                    // model saved over the files would lose all of them
+                    Log.w(TAG, "could not load n-grams", e);
+                    return;
+                }
+                mNgramStore = store;
+                final NgramModel model = store.getModel();
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        mPredictor.setModel(model);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Hands the committed text to the loader thread to learn from. */
+    private void learnAsync(final boolean breakContext) {
+        if(mLearnText.length() == 0 && !breakContext)
+            return;
+        final String text = mLearnText.toString();
+        mLearnText.setLength(0);
+        mLoader.execute(new Runnable() {
+            public void run() {
+                if(mNgramStore == null)
+                    return;
+                try {
+                    if(text.length() > 0)
+                        mNgramStore.learn(text);
+                    if(breakContext)
+                        mNgramStore.breakContext();
+                } catch(IOException e) {
+                    Log.w(TAG, "could not save n-grams", e);
+                }
+            }
+        });
+    }
+
+    // editors tend to write in several steps, wait for them to settle
+    static final int RELOAD_DELAY = 200;
+
+    private volatile long mReloadRequested;
+
+    private final Runnable mReload = new Runnable() {
+        public void run() {
+            reloadAsync();
+        }
+    };
+
+    private class LayoutObserver extends FileObserver {
+        final String mName;
+
+        LayoutObserver() {
+            // watch the directory, editors often replace the file
+            super(new File(LAYOUT_FILE).getParent(),
+                    FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO);
+            mName = new File(LAYOUT_FILE).getName();
+        }
+
+        @Override public void onEvent(int event, String path) {
+            if(!mName.equals(path))
+                return;
+            mReloadRequested = SystemClock.uptimeMillis();
+            mHandler.removeCallbacks(mReload);
+            mHandler.postDelayed(mReload, RELOAD_DELAY);
         }
     }
     
@@ -56,15 +305,25 @@ public class KeyboardService extends InputMethodService
      */
     @Override public View onCreateInputView() {
         if(mKeyboard != null && !mChorded) {
-            mView = (SquareKeyboardView) getLayoutInflater().inflate(
-                    R.layout.input, null);
-            ((SquareKeyboardView)mView).setKeyboard(mKeyboard);
+            if(mSquareView == null) {
+                mSquareView = (SquareKeyboardView) getLayoutInflater().inflate(
+                        R.layout.input, null);
+                mSquareView.setKeyboard(mKeyboard);
+            }
+            mView = mSquareView;
         } else { 
-            mView = (ChordKeyboardView) getLayoutInflater().inflate(
-                    R.layout.chordinput, null);
-            // FIXME
-            ((ChordKeyboardView)mView).setListener_Temporary(this);
+            if(mChordView == null) {
+                mChordView = (ChordKeyboardView) getLayoutInflater().inflate(
+                        R.layout.chordinput, null);
+                mChordView.setKeyboard(mKeyboard);
+            }
+            mView = mChordView;
         }
+        // still in the frame of before a configuration change
+        ViewGroup parent = (ViewGroup) mView.getParent();
+        if(parent != null) 
+            parent.removeView(mView);
+        mView.setRecording(mRecording);
 
         return mView;
     }
@@ -74,7 +333,9 @@ public class KeyboardService extends InputMethodService
      * be generated, like {@link #onCreateInputView}.
      */
     @Override public View onCreateCandidatesView() {
-        return null;
+        mCandidateView = new CandidateView(this);
+        mCandidateView.setService(this);
+        return mCandidateView;
     }
 
     /**
@@ -88,46 +349,43 @@ public class KeyboardService extends InputMethodService
         
         // Reset our state.  We want to do this even if restarting, because
         // the underlying state of the text editor could have changed in any way.
+        mPredictionOn = false;
+        mLearning = false;
+        mPredictor.reset();
         
         if (!restarting) {
             // Clear shift states.
             //mMetaState = 0; // FIXME
+            // Start in the state the layout maps this kind of field to,
+            // main if none.
+            mKeyboard.setInputType(attribute.inputType);
         }
         
-        
-        
         // We are now going to initialize our state based on the type of
         // text being edited.
         switch (attribute.inputType&EditorInfo.TYPE_MASK_CLASS) {
             case EditorInfo.TYPE_CLASS_NUMBER:
             case EditorInfo.TYPE_CLASS_DATETIME:
-                // Numbers and dates default to the symbols keyboard, with
-                // no extra features.
-                //mCurKeyboard = mSymbolsKeyboard;
-                break;
-                
             case EditorInfo.TYPE_CLASS_PHONE:
-                // Phones will also default to the symbols keyboard, though
-                // often you will want to have a dedicated phone keyboard.
-                //mCurKeyboard = mSymbolsKeyboard;
+                // No predictions; the layout file picks the keys, see
+                // setInputType() above.
                 break;
                 
             case EditorInfo.TYPE_CLASS_TEXT:
-                // This is general text editing.  We will default to the
-                // normal alphabetic keyboard, and assume that we should
+                // This is general text editing.  We assume that we should
                 // be doing predictive text (showing candidates as the
                 // user types).
-                //mCurKeyboard = mQwertyKeyboard;
-                //mPredictionOn = true;
+                mPredictionOn = true;
+                mLearning = true;
                 
                 // We now look for a few special variations of text that will
                 // modify our behavior.
                 int variation = attribute.inputType &  EditorInfo.TYPE_MASK_VARIATION;
-                if (variation == EditorInfo.TYPE_TEXT_VARIATION_PASSWORD ||
-                        variation == EditorInfo.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD) {
+                if (InputTypes.variationKind(attribute.inputType) == InputTypes.PASSWORD) {
                     // Do not display predictions / what the user is typing
-                    // when they are entering a password.
-                    //mPredictionOn = false;
+                    // when they are entering a password, web ones included.
+                    mPredictionOn = false;
+                    mLearning = false;
                 }
                 
                 if (variation == EditorInfo.TYPE_TEXT_VARIATION_EMAIL_ADDRESS 
@@ -135,7 +393,7 @@ public class KeyboardService extends InputMethodService
                         || variation == EditorInfo.TYPE_TEXT_VARIATION_FILTER) {
                     // Our predictions are not useful for e-mail addresses
                     // or URIs.
-                    //mPredictionOn = false;
+                    mPredictionOn = false;
                 }
                 
                 if ((attribute.inputType&EditorInfo.TYPE_TEXT_FLAG_AUTO_COMPLETE) != 0) {
@@ -144,7 +402,7 @@ public class KeyboardService extends InputMethodService
                     // to supply their own.  We only show the editor's
                     // candidates when in fullscreen mode, otherwise relying
                     // own it displaying its own UI.
-                    //mPredictionOn = false;
+                    mPredictionOn = false;
                     //mCompletionOn = isFullscreenMode();
                 }
                 
@@ -171,6 +429,11 @@ public class KeyboardService extends InputMethodService
      * this to reset our state.
      */
     @Override public void onFinishInput() {
+        // the editor is still there, give it what was typed
+        mCommits.flush();
+        if(mLearning)
+            learnAsync(true);
+        mEditor.finish();
         super.onFinishInput();
         
         // Clear current composing text and candidates.
@@ -189,6 +452,10 @@ public class KeyboardService extends InputMethodService
     
     @Override public void onStartInputView(EditorInfo attribute, boolean restarting) {
         super.onStartInputView(attribute, restarting);
+        mEditor.start(getCurrentInputConnection(), attribute);
+        // the strip stays up while typing, so the editor does not jump
+        setCandidatesViewShown(predicting());
+        updateCandidates();
         // Apply the selected keyboard to the input view.
         //mInputView.setKeyboard(mCurKeyboard);
         //mInputView.closing();
@@ -205,6 +472,28 @@ public class KeyboardService extends InputMethodService
         
         // If the current selection in the text view changes, we should
         // clear whatever candidate text we have.
+        if(mEditor.onUpdateSelection(newSelStart, newSelEnd))
+            return;
+        // moved by the user or the app: continue the word now before
+        // the cursor, if any. Held back text goes where it was typed
+        // first, the editor is read below.
+        mCommits.flushMoved(oldSelStart, oldSelEnd, newSelStart, newSelEnd);
+        if(mLearning)
+            learnAsync(true);
+        if(predicting()) {
+            mPredictor.reset();
+            if(newSelStart == newSelEnd)
+                mPredictor.onText(lastWord(mEditor.getTextBefore(getCurrentInputConnection())));
+            updateCandidates();
+        }
+    }
+
+    // the word chars at the end of text
+    private static CharSequence lastWord(CharSequence text) {
+        int start = text.length();
+        while(start > 0 && WordPredictor.isWordChar(text.charAt(start-1)))
+            start--;
+        return text.subSequence(start, text.length());
     }
 
     /**
@@ -330,26 +619,242 @@ public class KeyboardService extends InputMethodService
     //  actions from SquareKeyboardView
 
     public void onKey(char ch) {
-            getCurrentInputConnection().commitText(
-                    String.valueOf(ch), 1);
+        String text = String.valueOf(ch);
+        mCommits.commitText(text);
+        mEditor.onCommit(text);
+        if(predicting()) {
+            long start = System.nanoTime();
+            if(mPredictor.onChar(ch))
+                updateCandidates();
+            InputStats.sPredict.recordSince(start);
+        }
+        if(mLearning) {
+            mLearnText.append(ch);
+            if(!WordPredictor.isWordChar(ch))
+                learnAsync(false);
+        }
     }
 
     public void onText(CharSequence text) {
-        InputConnection ic = getCurrentInputConnection();
-        if (ic == null) return;
-        ic.beginBatchEdit();
-        ic.commitText(text, 0);
+        mCommits.commitText(text);
+        mEditor.onCommit(text);
+        if(predicting() && mPredictor.onText(text))
+            updateCandidates();
+        // taps come here one char at a time, learn whole words only
+        if(mLearning && text.length() > 0) {
+            mLearnText.append(text);
+            if(!WordPredictor.isWordChar(text.charAt(text.length()-1)))
+                learnAsync(false);
+        }
+    }
+
+    public void onSpecialKey(int keyCode) {
+        mCommits.sendKey(keyDown(keyCode), mKeyUpEvents.get(keyCode));
+        if(keyCode == KeyEvent.KEYCODE_DEL)
+            mEditor.onDelete(1);
+        else
+            mEditor.invalidate();
+        if(predicting()) {
+            // anything but a backspace moves off the word
+            boolean changed = keyCode == KeyEvent.KEYCODE_DEL
+                ? mPredictor.onBackspace() : mPredictor.reset();
+            if(changed)
+                updateCandidates();
+        }
+        if(mLearning) {
+            int len = mLearnText.length();
+            if(keyCode == KeyEvent.KEYCODE_DEL && len > 0)
+                mLearnText.setLength(len-1);
+            else
+                learnAsync(true);
+        }
+    }
+
+    /**
+     * Runs the steps of macro in one batch edit, after any held back
+     * text in the same edit. Everything it sends was made when the
+     * layout was parsed, or on first use for key events.
+     */
+    public void onMacro(Macro macro) {
+        InputConnection ic = mCommits.beginBatch();
+        if(ic == null)
+            return;
+        InputStats.beginSection("KeyboardService.onMacro");
+        for(int i = 0; i < macro.size(); i++) {
+            switch(macro.getOp(i)) {
+                case Macro.TEXT: {
+                    String text = macro.getText(i);
+                    ic.commitText(text, 1);
+                    mEditor.onCommit(text);
+                    break;
+                }
+                case Macro.KEY: {
+                    int keyCode = macro.getArg(i);
+                    ic.sendKeyEvent(keyDown(keyCode));
+                    ic.sendKeyEvent(mKeyUpEvents.get(keyCode));
+                    if(keyCode == KeyEvent.KEYCODE_DEL)
+                        mEditor.onDelete(1);
+                    else
+                        mEditor.invalidate();
+                    break;
+                }
+                case Macro.MOVE:
+                    moveCursor(ic, macro.getArg(i));
+                    break;
+            }
+        }
         ic.endBatchEdit();
+        InputStats.endSection();
+        InputStats.committed();
+        // not typed word by word, nothing to predict or learn from
+        if(predicting() && mPredictor.reset())
+            updateCandidates();
+        if(mLearning)
+            learnAsync(true);
+    }
+
+    // with setSelection() where the cursor is known, else arrow keys
+    private void moveCursor(InputConnection ic, int chars) {
+        int pos = mEditor.getCursor();
+        if(pos >= 0) {
+            pos = Math.max(0, pos + chars);
+            ic.setSelection(pos, pos);
+            mEditor.onMove(chars);
+            return;
+        }
+        int keyCode = chars < 0 ? KeyEvent.KEYCODE_DPAD_LEFT : KeyEvent.KEYCODE_DPAD_RIGHT;
+        KeyEvent down = keyDown(keyCode), up = mKeyUpEvents.get(keyCode);
+        for(int n = Math.abs(chars); n > 0; n--) {
+            ic.sendKeyEvent(down);
+            ic.sendKeyEvent(up);
+        }
+        mEditor.invalidate();
     }
 
-    public void onSpecialKey(int keyCode, KeyEvent event) {
-        getCurrentInputConnection().sendKeyEvent(event);
-        // handle backspace etc here
+    private boolean predicting() {
+        return mPredictionOn && mPredictor.hasSource();
+    }
+
+    private void updateCandidates() {
+        if(mCandidateView != null)
+            mCandidateView.update(predicting() ? mPredictor : null);
+    }
+
+    /** Replaces the word being typed by candidate i and a space. */
+    void pickCandidate(int i) {
+        if(!predicting() || i >= mPredictor.getCandidateCount())
+            return;
+        int typed = mPredictor.getTypedLength();
+        // the word before the cursor must be what the predictor saw; if
+        // the copy is stale the editor is read, after held back text
+        mCommits.flush();
+        CharSequence before = mEditor.getTextBefore(getCurrentInputConnection());
+        if(lastWord(before).length() != typed) {
+            mPredictor.reset();
+            updateCandidates();
+            return;
+        }
+        String word = mPredictor.pick(i) + " ";
+        mCommits.replaceBefore(typed, word);
+        mEditor.onDelete(typed);
+        mEditor.onCommit(word);
+        updateCandidates();
+        if(mLearning) {
+            mLearnText.setLength(Math.max(0, mLearnText.length() - typed));
+            mLearnText.append(word);
+            learnAsync(false);
+        }
+    }
+
+    // down and up events for SpecialKey codes, created on first use and
+    // sent again for every press and auto-repeat
+    private final SparseArray<KeyEvent> mKeyDownEvents = new SparseArray<KeyEvent>();
+    private final SparseArray<KeyEvent> mKeyUpEvents = new SparseArray<KeyEvent>();
+
+    // the down event for keyCode, making both on first use
+    private KeyEvent keyDown(int keyCode) {
+        KeyEvent down = mKeyDownEvents.get(keyCode);
+        if(down == null) {
+            down = softKeyEvent(KeyEvent.ACTION_DOWN, keyCode);
+            mKeyDownEvents.put(keyCode, down);
+            mKeyUpEvents.put(keyCode, softKeyEvent(KeyEvent.ACTION_UP, keyCode));
+        }
+        return down;
+    }
+
+    private static KeyEvent softKeyEvent(int action, int keyCode) {
+        KeyEvent event = new KeyEvent(action, keyCode);
+        return KeyEvent.changeFlags(event, event.getFlags() | KeyEvent.FLAG_SOFT_KEYBOARD);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter fout, String[] args) {
+        super.dump(fd, fout, args);
+        InputStats.dump(fout);
+        if(mCorrector != null)
+            fout.println("  corrections cut short: " + mCorrector.getTimeouts());
+        fout.println("  " + mEditor.dump());
+        List<String> cmds = args != null ? Arrays.asList(args) : new ArrayList<String>();
+        if(cmds.contains("reset")) {
+            InputStats.reset();
+            fout.println("  reset");
+        }
+        if(cmds.contains("record")) {
+            fout.println("  recording touches");
+            mHandler.post(new Runnable() {
+                public void run() {
+                    startRecording();
+                }
+            });
+        } else if(cmds.contains("stop")) {
+            fout.println("  saving touches to " + new File(getFilesDir(), RECORDING_FILE));
+            mHandler.post(new Runnable() {
+                public void run() {
+                    stopRecording();
+                }
+            });
+        }
+    }
+
+    // on the main thread, where touches are recorded
+    private void startRecording() {
+        if(mView == null) 
+            return;
+        mRecording = new TouchRecording(mView.mWidth, mView.mRowHeight);
+        mView.setRecording(mRecording);
+    }
+
+    private void stopRecording() {
+        final TouchRecording rec = mRecording;
+        if(rec == null) 
+            return;
+        mRecording = null;
+        if(mSquareView != null) 
+            mSquareView.setRecording(null);
+        if(mChordView != null) 
+            mChordView.setRecording(null);
+        final File file = new File(getFilesDir(), RECORDING_FILE);
+        mLoader.execute(new Runnable() {
+            public void run() {
+                try {
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        rec.write(out);
+                    } finally {
+                        out.close();
+                    }
+                    Log.i(TAG, "saved " + rec.size() + " touch events to " + file);
+                } catch(IOException e) {
+                    Log.w(TAG, "cannot save touches to " + file, e);
+                }
+            }
+        });
     }
 
     public void changeMode() {
+        mCommits.flush();
         mChorded = !mChorded;
-        setInputView(onCreateInputView()); //XXX
+        setInputView(onCreateInputView());
     }
     
     public void setSuggestions(List<String> suggestions, boolean completions,
@@ -15,21 +15,34 @@ import android.util.Log;
 import android.util.TypedValue;
 import android.content.res.Resources;
 
-public class SquareKeyboardView extends BaseKeyboardView {
+public class SquareKeyboardView extends BaseKeyboardView
+        implements SquareKeyboard.Display, KeyTracker.Callback {
 
     private final String TAG = "SquareKeyboardView";
     SquareKeyboard mKeyboard;
     int mRows, mCols;
-    int mRowHeight;
-     float mColWidth;
     int mLineThickness = 1;
 
+    // pointers, hit testing and key rectangles
+    KeyTracker mTracker;
+    float[][] mKeyX0, mKeyX1;
+    // presses a held auto-repeating key, reposted for every repeat
+    final Runnable mRepeat = new Runnable() {
+        public void run() {
+            long delay = mTracker.repeat();
+            if(delay >= 0) 
+                postDelayed(this, delay);
+        }
+    };
 
-    float mStartX, mStartY;
-    int mActiveI = -1, mActiveJ = -1;
-
-    int mActiveDir = 0;
-    int sweepTreshold = 50;
+    // all keys drawn without the active highlight, redrawn only when the
+    // keys or their looks change, see forceDraw()
+    Bitmap mKeyLayer;
+    Canvas mKeyLayerCanvas;
+    boolean mKeyLayerDirty = true;
+    // inline preview text width of each label, [swipe][row][col],
+    // measured along with mKeyLayer
+    float[][][] mPreviewTextW;
 
     public SquareKeyboardView(Context context) {
         super(context);
@@ -51,7 +64,8 @@ public class SquareKeyboardView extends BaseKeyboardView {
         mRows = 1;
         mCols = 1;
         mRowHeight = 35;
-
+        mTracker = new KeyTracker(mRowHeight, mLineThickness);
+        mTracker.setCallback(this);
     }
 
     void setKeyboard(SquareKeyboard keyboard) {
@@ -59,9 +73,12 @@ public class SquareKeyboardView extends BaseKeyboardView {
         keyboard.setView(this);
         mRows = keyboard.getRows();
         mCols = keyboard.getCols();
+        mTracker.setKeyboard(keyboard);
+        hidePreview();
         // size of keyboard might have changed
         mHeight = 0; // force resize
         requestLayout(); 
+        forceDraw();
     }
 
     @Override
@@ -71,57 +88,126 @@ public class SquareKeyboardView extends BaseKeyboardView {
     }
 
 
-    private int xToJ(float x) {
-        int j =  (int) (x / mColWidth);
-        if( j < 0 || j >= mCols ) return -1;
-        return j;
+    @Override
+    public void updateSize() {
+        super.updateSize();
+        mTracker.setWidth(mWidth);
     }
 
-    private int yToI(float y) {
-        int i =  (int) (y / mRowHeight);
-        if( y < 1 || i < 0 || i >= mRows ) return -1;
-        return i;
+    public void onGeometryChanged() {
+        mKeyX0 = mTracker.mKeyX0;
+        mKeyX1 = mTracker.mKeyX1;
+        mKeyLayerDirty = true;
     }
 
-    private int calcAngle(float dx, float dy) {
-        if(dx*dx+dy*dy < sweepTreshold*sweepTreshold) 
-            return 0;
-        double angl = Math.atan2(dy,dx) / (Math.PI);
-        if(angl > -0.25 && angl < 0.25 || angl > 0.75 || angl < -0.75) 
-            return SquareKeyboard.SWIPE_LR;
-        else
-            return SquareKeyboard.SWIPE_UD;
+    /**
+     * Redraws the whole keyboard. Called by the keyboard on state and dead
+     * key changes, and needed after a resize or changing the paints.
+     */
+    @Override
+    public void forceDraw() {
+        mKeyLayerDirty = true;
+        super.forceDraw();
+    }
+
+    public void scheduleRepeat(long delay) {
+        removeCallbacks(mRepeat);
+        postDelayed(mRepeat, delay);
+    }
+
+    public void cancelRepeat() {
+        removeCallbacks(mRepeat);
     }
 
     @Override
-    public void onDraw(Canvas c) {
-        mColWidth = (float)(mWidth-mLineThickness)/ mCols;
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mTracker.reset();
+        if( mKeyLayer != null) {
+            mKeyLayer.recycle();
+            mKeyLayer = null;
+            mKeyLayerCanvas = null;
+        }
+    }
+
+    private void updateKeyLayer() {
+        if( mWidth <= 0 || mHeight <= 0) 
+            return;
+        if( mKeyLayer == null || mKeyLayer.getWidth() != mWidth
+                || mKeyLayer.getHeight() != mHeight) {
+            if( mKeyLayer != null) 
+                mKeyLayer.recycle();
+            mKeyLayer = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            mKeyLayerCanvas = new Canvas(mKeyLayer);
+            mKeyLayerDirty = true;
+        }
+        if( !mKeyLayerDirty) 
+            return;
+        Canvas c = mKeyLayerCanvas;
         c.drawRect(0, 0, mWidth, mHeight, mBorderPaint);
         //drawGrid(c);
         for(int i = 0; i < mRows; i++) {
            for(int j = 0; j < mCols; j++) {
-               drawKey(c,i,j);
+               if( mTracker.mGeomW[i][j] > 0) 
+                   drawKey(c,i,j,false);
            }
         }
+        measurePreviews();
+        mKeyLayerDirty = false;
     }
 
-    private void drawKey(Canvas c, int i, int j) {
+    private void measurePreviews() {
+        int swipes = SquareKeyboard.N_ANGLES+1;
+        // only directions from KeyTracker.calcAngle() are previewed, but measuring
+        // the unused slots keeps indexing simple
+        if( mPreviewTextW == null || mPreviewTextW[0].length != mRows
+                || mPreviewTextW[0][0].length != mCols) 
+            mPreviewTextW = new float[swipes][mRows][mCols];
+        for(int dir = 0; dir < swipes; dir++) {
+            for(int i = 0; i < mRows; i++) {
+               for(int j = 0; j < mCols; j++) {
+                   mPreviewTextW[dir][i][j] = measurePreview(mKeyboard.getKeyLabel(i,j,dir));
+               }
+            }
+        }
+    }
+
+    @Override
+    public void onDraw(Canvas c) {
+        long start = System.nanoTime();
+        InputStats.beginSection("SquareKeyboardView.onDraw");
+        mTracker.updateGeometry();
+        updateKeyLayer();
+        if( mKeyLayer != null) {
+            int[] activeI = mTracker.mActiveI, activeJ = mTracker.mActiveJ;
+            c.drawBitmap(mKeyLayer, 0, 0, null);
+            for(int id = 0; id < KeyTracker.MAX_POINTERS; id++) {
+                if( activeI[id] >= 0) 
+                    drawKey(c,activeI[id],activeJ[id],true);
+            }
+            drawPreview(c);
+        }
+        InputStats.endSection();
+        InputStats.sDraw.recordSince(start);
+    }
+
+    // invalidates just the rectangle of a key
+    private void invalidateKey(int i, int j) {
+        invalidate((int) mKeyX0[i][j] - mLineThickness, i*mRowHeight,
+                (int) Math.ceil(mKeyX1[i][j]) + mLineThickness, (i+1)*mRowHeight + mLineThickness);
+    }
+
+    private void drawKey(Canvas c, int i, int j, boolean active) {
         // intervals inclusive [x0, x1]
         String label = mKeyboard.getKeyLabel(i,j,0);
         String altlabel = mKeyboard.getKeyLabel(i,j,SquareKeyboard.SWIPE_DISPLAY);
-        float x0 = j*mColWidth+mLineThickness;
-        int j2=j+1;
-        if( label.equals(" ")) {
-            while(j2<mCols && mKeyboard.getKeyLabel(i,j2,0).equals(" ")) 
-                j2++;
-        }
-        float x1 = j2*mColWidth;//-mLineThickness ;
-        //x1 = Math.min(x1,(float)mWidth-mLineThickness);
+        float x0 = mKeyX0[i][j];
+        float x1 = mKeyX1[i][j];
         float y0 = i*mRowHeight+mLineThickness;
         float y1 = (i+1)*mRowHeight;//-mLineThickness ;
         //y1 = Math.min(y1,(float)mHeight-mLineThickness);
         Paint p;
-        if(mActiveI == i && mActiveJ == j) {
+        if(active) {
             p = mActivePaint;
         } else if(mKeyboard.getKeyState(i,j,0) == SquareKeyboard.KEYSTATE_DEADMETA) {
             p = mLatchedPaint;
@@ -132,62 +218,68 @@ public class SquareKeyboardView extends BaseKeyboardView {
         drawKey(c,x0,x1,y0,y1,label,altlabel,p);
     }
 
-    private void updatePreview() {
-        if(mActiveI == -1 )  {
-            mPreviewWindow.dismiss();
+    public void onPreviewChanged() {
+        long start = System.nanoTime();
+        InputStats.beginSection("SquareKeyboardView.updatePreview");
+        showActivePreview();
+        InputStats.endSection();
+        InputStats.sPreview.recordSince(start);
+    }
+
+    private void showActivePreview() {
+        KeyTracker t = mTracker;
+        int id = t.mPreviewPointer;
+        if(id == -1 || t.mActiveI[id] == -1)  {
+            hidePreview();
+            return;
+        }
+        int i = t.mActiveI[id], j = t.mActiveJ[id], dir = t.mActiveDir[id];
+        String label = mKeyboard.getKeyLabel(i,j,dir);
+        int state = mKeyboard.getKeyState(i,j,dir);
+        int x = (int) ((mKeyX0[i][j]+mKeyX1[i][j])/2);
+        if(mInlinePreview) {
+            // over the row above the key, stale widths are measured anew
+            float w = -1;
+            if( !mKeyLayerDirty && mPreviewTextW != null) 
+                w = mPreviewTextW[dir][i][j];
+            showInlinePreview(label,state,w,x,i*mRowHeight);
             return;
         }
-        String label = mKeyboard.getKeyLabel(mActiveI,mActiveJ,mActiveDir);
-        int state = mKeyboard.getKeyState(mActiveI,mActiveJ,mActiveDir);
-        int x = (int) (mColWidth*mActiveJ+mColWidth/2);
-        int y = mRowHeight*(mActiveI-2)-mRowHeight/2;
+        int y = mRowHeight*(i-2)-mRowHeight/2;
         showPreview(label,state,x,y);
     }
 
 
-    @Override
-    void onTouchDown(int id, float x, float y) {
-        if(id == 0) { //HACK
-            mStartX = x;
-            mStartY = y;
-        }
-        onTouchMove(id, x, y);
+    // only the highlight moved, the rest comes from mKeyLayer
+    public void onActiveChanged(int id, int oldI, int oldJ) {
+        if(oldI >= 0) 
+            invalidateKey(oldI,oldJ);
+        if(mTracker.mActiveI[id] >= 0) 
+            invalidateKey(mTracker.mActiveI[id],mTracker.mActiveJ[id]);
     }
 
+    @Override
+    public void onTouchDown(int id, float x, float y) {
+        mTracker.onTouchDown(id, x, y);
+    }
 
     @Override
-    void onTouchMove(int id,float x, float y) {
-        int j = xToJ(x), i = yToI(y), dir = calcAngle(x-mStartX,y-mStartY);
-        if(j == -1) i = -1;
-        if(mActiveI != i || mActiveJ != j || mActiveDir != dir)  {
-            int oldI = mActiveI;
-            int oldJ = mActiveJ;
-            mActiveI = i; mActiveJ = j;
-            mActiveDir = dir;
-            updatePreview();
-            if(oldI >= 0) {
-                // FIXME maybe. Redrawing entire keyboard is probably a non-issue.
-                //drawKey(oldI,oldJ);
-                invalidate();
-            }
-            if(i >= 0) {
-                //drawKey(i,j);
-                invalidate();
-            }
-            //invalidate();
-        }
+    public void onTouchMove(int id,float x, float y) {
+        mTracker.onTouchMove(id, x, y);
     }
 
     @Override
-    void onTouchUp(int id,float x, float y) {
-        int j = xToJ(x), i = yToI(y), dir = calcAngle(x-mStartX,y-mStartY);
-        if( id != 0 ) dir = 0; //FIXME: proper multitouch support
-        if( i < 0 || j < 0) return;
-        // FIXME: multitouch still a bit buggy, can commit unpreviewed key
-        mKeyboard.onKeyPress(i,j,dir);
-        onTouchMove(id,-1f,-1f);
+    public void onTouchUp(int id,float x, float y) {
+        long start = System.nanoTime();
+        InputStats.beginSection("SquareKeyboardView.onTouchUp");
+        mTracker.onTouchUp(id, x, y);
+        InputStats.endSection();
+        InputStats.sKeyPress.recordSince(start);
     }
 
+    @Override
+    public void onTouchCancel() {
+        mTracker.onTouchCancel();
+    }
 
 }
-